@@ -0,0 +1,273 @@
+package com.kpi.tuke.scql;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import javacard.framework.Util;
+
+/**
+ * Capacity profile holds the limits of the database, which are set by the install parameters,
+ * so the same applet can be installed e.g. for one large table or for many small tables.
+ * The applet specific install parameters are the sequence of the capacity tags, every tag is followed
+ * by 2 bytes value. The capacity, which is not sent, keeps its default value from {@code SCQL_ISO7816}.
+ * The profile is checked on install, so the database doesn't reserve more transient memory,
+ * than the card has, and the limits fit the encoding of the commands.
+ */
+public class CapacityProfile {
+
+    // The handle has 4 bits of the slot for the tables and the views
+    private static final short LIMIT_HANDLES = 16;
+
+    // The columns count shares the byte with the flags of CREATE TABLE
+    private static final short LIMIT_COLUMNS = 0x1F;
+
+    // The row with the offset directory keeps the offsets of the columns in 1 byte
+    private static final short LIMIT_ROW_LENGTH = 0xFF;
+
+    // The Lp of the column value is the signed byte
+    private static final short LIMIT_DATA_COLUMN_LENGTH = 0x7F;
+
+    // The scratch pool and the bulk insert row should be addressed by the short offsets
+    private static final short LIMIT_SCRATCH_ROWS = 0x3F00;
+    private static final short LIMIT_SCRATCH_BLOCKS = 0x7F;
+
+    // Sizes of the transient objects without the array headers, the object reference is counted as 2 bytes
+    private static final short REFERENCE_SIZE = 2;
+    private static final short SCAN_SIZE = 2 * REFERENCE_SIZE + 3 * 2;
+    private static final short CURSOR_SIZE = 4 * 2 + SCAN_SIZE;
+
+    // Every row has 2 bytes reference or arena slot and 2 bytes entry of the index, e.g. of the primary key
+    private static final short ROW_SIZE = 4;
+
+    private short maxTables;
+    private short maxViews;
+    private short maxColumns;
+    private short maxDataColumnLength;
+    private short maxRows;
+    private short maxArenaSize;
+    private short scratchBlocks;
+
+    /**
+     * Creates the profile with the default capacities.
+     */
+    public CapacityProfile() {
+        this.maxTables = SCQL_ISO7816.MAX_TABLES;
+        this.maxViews = SCQL_ISO7816.MAX_VIEWS;
+        this.maxColumns = SCQL_ISO7816.MAX_COLUMNS;
+        this.maxDataColumnLength = SCQL_ISO7816.MAX_DATA_COLUMN_LENGTH;
+        this.maxRows = SCQL_ISO7816.MAX_ROWS;
+        this.maxArenaSize = SCQL_ISO7816.MAX_ARENA_SIZE;
+        this.scratchBlocks = SCQL_ISO7816.SCRATCH_BLOCKS;
+    }
+
+    /**
+     * Creates the profile from the install parameters.
+     * Install parameters: Li AID, Lc control info, La applet data (capacity tags with 2 bytes values).
+     * @param bArray array with the install parameters.
+     * @param bOffset offset of the install parameters.
+     * @param bLength length of the install parameters.
+     */
+    public CapacityProfile(byte[] bArray, short bOffset, byte bLength) {
+        this();
+
+        if (bArray == null || bLength == 0) {
+            check();
+            return;
+        }
+
+        short end = (short) (bOffset + (bLength & 0xFF));
+
+        // Skipping the instance AID and the control info
+        short offset = (short) (bOffset + (bArray[bOffset] & 0xFF) + 1);
+        offset += (short) ((bArray[offset] & 0xFF) + 1);
+
+        short dataEnd = (short) (offset + (bArray[offset] & 0xFF) + 1);
+        offset++;
+
+        if (dataEnd > end) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+        }
+
+        while (offset < dataEnd) {
+            if ((short) (offset + 3) > dataEnd) {
+                ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+            }
+
+            setCapacity(bArray[offset], Util.getShort(bArray, (short) (offset + 1)));
+            offset += 3;
+        }
+
+        check();
+    }
+
+    /**
+     * Sets the capacity by the tag.
+     * @param tag capacity tag.
+     * @param value new value of the capacity.
+     */
+    private void setCapacity(byte tag, short value) {
+
+        switch (tag) {
+            case SCQL_ISO7816.CAPACITY_TABLES:
+                maxTables = value;
+                break;
+            case SCQL_ISO7816.CAPACITY_VIEWS:
+                maxViews = value;
+                break;
+            case SCQL_ISO7816.CAPACITY_COLUMNS:
+                maxColumns = value;
+                break;
+            case SCQL_ISO7816.CAPACITY_DATA_COLUMN_LENGTH:
+                maxDataColumnLength = value;
+                break;
+            case SCQL_ISO7816.CAPACITY_ROWS:
+                maxRows = value;
+                break;
+            case SCQL_ISO7816.CAPACITY_ARENA_SIZE:
+                maxArenaSize = value;
+                break;
+            case SCQL_ISO7816.CAPACITY_SCRATCH_BLOCKS:
+                scratchBlocks = value;
+                break;
+            default:
+                ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+        }
+    }
+
+    /**
+     * Checks, that the capacities fit the encoding of the commands and the available memory.
+     */
+    private void check() {
+
+        if (maxTables < 1 || maxViews < 0 || (short) (maxTables + maxViews) > LIMIT_HANDLES) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+        }
+
+        // The longest row with the offset directory: 1 byte offset and the Lp block of every column
+        if (maxColumns < 1 || maxColumns > LIMIT_COLUMNS || maxDataColumnLength < 1
+                || maxDataColumnLength > LIMIT_DATA_COLUMN_LENGTH
+                || maxDataColumnLength > (short) (LIMIT_ROW_LENGTH / maxColumns - 2)) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+        }
+
+        if (maxRows < 1 || scratchBlocks < 1 || scratchBlocks > LIMIT_SCRATCH_BLOCKS
+                || maxRows > (short) (LIMIT_SCRATCH_ROWS / scratchBlocks) || maxArenaSize < 0) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+        }
+
+        if (getTransientSize() > JCSystem.getAvailableMemory(JCSystem.MEMORY_TYPE_TRANSIENT_DESELECT)) {
+            ISOException.throwIt(SCQL_ISO7816.SW_FILE_FULL);
+        }
+
+        if (getPersistentSize() > JCSystem.getAvailableMemory(JCSystem.MEMORY_TYPE_PERSISTENT)) {
+            ISOException.throwIt(SCQL_ISO7816.SW_FILE_FULL);
+        }
+    }
+
+    /**
+     * Gets the size of the transient memory, which is allocated by the database: the scratch pool,
+     * the bulk insert state with its row, the row buffer of the update, the values of the set command filters,
+     * the scans of the tables and of the aggregates,
+     * and the cursors of all the channels. Every cursor is counted as the join cursor, which has the state
+     * and the scan for both tables.
+     * @return size in bytes. 0x7FFF - if the size doesn't fit the short.
+     */
+    private short getTransientSize() {
+        short size = (short) (getMaxRowLength() + REFERENCE_SIZE + 3 * 2 + getMaxStoredRowLength() + getMaxWhereValuesLength());
+
+        size += (short) ((short) (maxTables + 1) * SCAN_SIZE);
+        size += (short) (SCQL_ISO7816.MAX_CHANNELS * SCQL_ISO7816.MAX_CURSORS * 2 * CURSOR_SIZE);
+
+        return add(size, (short) (scratchBlocks * (short) (2 * maxRows + 1)));
+    }
+
+    /**
+     * Gets the size of the persistent memory, which the database needs with all the tables full:
+     * the object and handle arrays allocated on install, the row references and one index of every table,
+     * and the arena of one table. The default arena size is not limited, so it is not counted.
+     * The values of the rows and the other indexes are allocated by their commands and are not counted.
+     * @return size in bytes. 0x7FFF - if the size doesn't fit the short.
+     */
+    private short getPersistentSize() {
+        short size = (short) ((short) (maxTables + maxViews) * 5);
+
+        if (maxRows > (short) ((short) (0x7FFF - size) / (short) (maxTables * ROW_SIZE))) {
+            return 0x7FFF;
+        }
+
+        size += (short) (maxTables * (short) (maxRows * ROW_SIZE));
+
+        if (maxArenaSize == SCQL_ISO7816.MAX_ARENA_SIZE) {
+            return size;
+        }
+
+        return add(size, maxArenaSize);
+    }
+
+    /**
+     * Adds the sizes, the sum is limited by the largest short.
+     * @param size size in bytes.
+     * @param more added size in bytes.
+     * @return sum of the sizes. 0x7FFF - if the sum doesn't fit the short.
+     */
+    private static short add(short size, short more) {
+
+        if (more > (short) (0x7FFF - size)) {
+            return 0x7FFF;
+        }
+
+        return (short) (size + more);
+    }
+
+    /**
+     * Gets the length of the longest row sent in the command: N and the Lp blocks of the columns.
+     * @return length in bytes.
+     */
+    public short getMaxRowLength() {
+        return (short) (1 + maxColumns * (short) (1 + maxDataColumnLength));
+    }
+
+    /**
+     * Gets the length of the longest stored row: the directory offset and the Lp block of every column.
+     * @return length in bytes.
+     */
+    public short getMaxStoredRowLength() {
+        return (short) (maxColumns * (short) (2 + maxDataColumnLength));
+    }
+
+    /**
+     * Gets the length of the values of all the filters of the set command. The value is kept
+     * with at most one byte more than the longest stored value.
+     * @return length in bytes.
+     */
+    public short getMaxWhereValuesLength() {
+        return (short) (SCQL_ISO7816.MAX_FILTERS * (short) (maxDataColumnLength + 1));
+    }
+
+    public short getMaxTables() {
+        return maxTables;
+    }
+
+    public short getMaxViews() {
+        return maxViews;
+    }
+
+    public short getMaxColumns() {
+        return maxColumns;
+    }
+
+    public short getMaxDataColumnLength() {
+        return maxDataColumnLength;
+    }
+
+    public short getMaxRows() {
+        return maxRows;
+    }
+
+    public short getMaxArenaSize() {
+        return maxArenaSize;
+    }
+
+    public short getScratchBlocks() {
+        return scratchBlocks;
+    }
+}
@@ -1,11 +1,21 @@
 package com.kpi.tuke.scql;
 
 import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
 
 /**
  * Cursor class used for selecting, deleting and updating data rows inside the {@code Performable} object
  * instances.
  * Cursor is defined by ISO7816-7, containing selecting column names and filters to be applied for filtering.
+ * The cursor is streaming: the result is not materialized on open, instead the filters are evaluated
+ * while the cursor moves forward through the rows of the table or through the range of a table index.
+ * The cursor with the order or the limit sorts the indexes of the filtered rows on open in the block of the
+ * transient scratch pool and moves through the sorted rows.
+ * The declaration is persistent, the position of the cursor is kept in the transient memory and the cursor
+ * is closed, when the applet is deselected.
+ * The cursor of the view is composed with the view on declaration: the selected columns are mapped
+ * to the columns of the referred table and the view filters are merged with the cursor filters,
+ * so the cursor moves through the table rows and projects them once on fetch.
  */
 public class Cursor {
 
@@ -13,159 +23,329 @@ public class Cursor {
     private byte[] columnIndexes;
     private Filter[] filters;
 
-    private Data[] selectedData;
-    private short dataCursor;
+    private static final byte OPENED = 0;
+    private static final byte ROW_INDEX = 1;
+    private static final byte VERSION = 2;
+    private static final byte ORDER = 3;
+
+    private short orderColumn;
+    private boolean descending;
+    private short limit;
+
+    private ScratchPool scratch;
+    private Scan scan;
+    private short[] state;
+
+    public Cursor(ScratchPool scratch, Performable obj, byte[] columnIndexes, Filter[] filters) {
+        this.scratch = scratch;
+        this.scan = new Scan();
+        this.state = JCSystem.makeTransientShortArray((short) 4, JCSystem.CLEAR_ON_DESELECT);
+
+        declare(obj, columnIndexes, filters);
+    }
+
+    /**
+     * Declares the cursor again with the new object, columns and filters. The cursor instance and its scan
+     * are reused, the cursor should be opened again.
+     * @param obj table or view to select from.
+     * @param columnIndexes indexes of the selected columns of the object, they are mapped to the table columns.
+     * @param filters filters of the table columns to apply, can be null.
+     */
+    public void declare(Performable obj, byte[] columnIndexes, Filter[] filters) {
+
+        for (short i = 0; i < columnIndexes.length; i++) {
+            columnIndexes[i] = (byte) obj.getTableColumnIndex(columnIndexes[i]);
+        }
 
-    public Cursor(Performable obj, byte[] columnIndexes, Filter[] filters) {
         this.obj = obj;
         this.columnIndexes = columnIndexes;
-        this.filters = filters;
+        this.filters = mergeFilters(obj.getFilters(), filters);
+        this.orderColumn = -1;
+        this.limit = 0;
 
-        this.dataCursor = -1;
-        this.selectedData = null;
+        this.scan.reset();
+        close();
     }
 
     /**
-     * Used for clearing the object instance and resets the structure.
+     * Merges the filters of the view with the filters of the cursor. The filters are not copied,
+     * the merged array is allocated once on declaration.
+     * @param objFilters filters of the view, can be null.
+     * @param filters filters of the cursor, can be null.
+     * @return merged filters, can be null.
      */
-    public void removeReference() {
-        obj = null;
+    private Filter[] mergeFilters(Filter[] objFilters, Filter[] filters) {
 
-        if (selectedData != null) {
-            for (short i = 0; i < selectedData.length; i++) {
-                selectedData[i] = null;
-            }
-            dataCursor = -1;
-            selectedData = null;
+        if (objFilters == null) {
+            return filters;
+        }
+
+        if (filters == null) {
+            return objFilters;
+        }
+
+        Filter[] merged = new Filter[(short) (objFilters.length + filters.length)];
+
+        for (short i = 0; i < objFilters.length; i++) {
+            merged[i] = objFilters[i];
+        }
+
+        for (short i = 0; i < filters.length; i++) {
+            merged[(short) (objFilters.length + i)] = filters[i];
         }
+
+        return merged;
     }
 
     /**
-     * Updates the data row inside {@code Performable} object instance.
-     * @param data columns data to be updated.
-     * @param columnName column names to be updated.
+     * Sets the order of the rows and the limit of the rows count.
+     * @param columnIndex index of the table column to sort by. -1 - rows are not sorted.
+     * @param descending true - descending order. false - ascending order.
+     * @param limit maximal amount of the rows. 0 - no limit.
      */
-    public void update(byte[] data, byte[] columnName) {
+    public void setOrder(short columnIndex, boolean descending, short limit) {
+        this.orderColumn = columnIndex;
+        this.descending = descending;
+        this.limit = limit;
+    }
 
-        if (data == null || data.length == 0) {
-            ISOException.throwIt(SCQL_ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+    /**
+     * Closes the cursor, it should be opened again to move through the rows.
+     * The block of the sorted rows is returned to the scratch pool.
+     */
+    public void close() {
+        state[OPENED] = 0;
+        state[ROW_INDEX] = -1;
+
+        // The offset of the block is kept increased by one, 0 - no block
+        if (state[ORDER] != 0) {
+            scratch.release((short) (state[ORDER] - 1));
+            state[ORDER] = 0;
         }
+    }
 
-        if (columnName == null || columnName.length == 0) {
-            ISOException.throwIt(SCQL_ISO7816.SW_CONDITIONS_NOT_SATISFIED);
-        }
+    /**
+     * Used for clearing the object instance and resets the structure.
+     */
+    public void removeReference() {
+        obj = null;
+        close();
+    }
+
+    /**
+     * Checks, if the cursor selects from the object.
+     * @param obj table or view.
+     * @return true - if the cursor uses the object.
+     */
+    public boolean isReferring(Performable obj) {
+        return this.obj == obj;
+    }
+
+    /**
+     * Gets the index of the cursor object column by the name.
+     * @param src source array with the column name.
+     * @param offset offset of the column name.
+     * @param length length of the column name.
+     * @return index of the column.
+     */
+    public short getColumnIndexByName(byte[] src, short offset, short length) {
 
         if (obj == null) {
             ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
         }
 
-        // If cursor was not opened
-        if (selectedData == null) {
-            ISOException.throwIt(SCQL_ISO7816.SW_CONDITIONS_NOT_SATISFIED);
-        }
-
-        // Getting the column index
-        short columnIndex = obj.getColumnIndexByName(columnName);
+        short columnIndex = obj.getColumnIndexByName(src, offset, length);
 
         if (columnIndex == -1) {
             ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
         }
 
+        return columnIndex;
+    }
 
+    /**
+     * Checks, that the column of the row, to which the cursor points to, can be updated by the value.
+     * @param columnIndex index of the column.
+     * @param value array with the new value.
+     * @param offset offset of the value.
+     * @param length length of the value.
+     */
+    public void checkUpdate(short columnIndex, byte[] value, short offset, short length) {
+        checkPosition();
+
+        obj.checkUpdate(state[ROW_INDEX], columnIndex, value, offset, length);
+    }
+
+    /**
+     * Updates the column of the row, to which the cursor points to. The cursor stays on the row.
+     * @param columnIndex index of the column.
+     * @param value array with the new value.
+     * @param offset offset of the value.
+     * @param length length of the value.
+     */
+    public void update(short columnIndex, byte[] value, short offset, short length) {
+        checkPosition();
+
+        obj.update(state[ROW_INDEX], columnIndex, value, offset, length);
+
+        // The new value can move the row in the index of the scan
+        scan.updated(state[ROW_INDEX]);
     }
 
     /**
      * Deletes the row to which the cursor points to.
      */
     public void delete() {
-        // If cursor was not opened
-        if (selectedData == null) {
-            ISOException.throwIt(SCQL_ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+        checkPosition();
+
+        obj.delete(state[ROW_INDEX]);
+
+        // Moving the cursor to the next logical position.
+        // The row IDs are stable, only the index entries are shifted to the deleted entry position.
+        scan.removed();
+        state[ROW_INDEX] = obj.getTable().seek(scan, filters);
+    }
+
+    /**
+     * Opens the cursor and positions it on the first row, which applies the filters.
+     */
+    public void open() {
+
+        if (obj == null || obj.getTable() == null) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
         }
 
-        if (dataCursor >= selectedData.length) {
+        Table table = obj.getTable();
+
+        close();
+        table.initScan(scan, filters);
+
+        if (orderColumn != -1 || limit != 0) {
+            sort(table);
+        }
+
+        state[ROW_INDEX] = table.seek(scan, filters);
+        state[VERSION] = table.getVersion();
+        state[OPENED] = 1;
+
+        if (state[ROW_INDEX] == -1) {
             ISOException.throwIt(SCQL_ISO7816.SW_END_OF_TABLE);
         }
+    }
+
+    /**
+     * Sorts the filtered rows into the block of the scratch pool by the insertion and switches the scan to the sorted rows.
+     * With the limit, only the first rows are kept and the row, which falls behind the limit, is dropped.
+     * The rows with the equal values keep the scan order.
+     * @param table table of the rows.
+     */
+    private void sort(Table table) {
+        short[] order = scratch.getRows();
+        short first = scratch.acquireCursor();
+        state[ORDER] = (short) (first + 1);
+
+        short max = limit != 0 && limit < scratch.getBlockSize() ? limit : scratch.getBlockSize();
+        short end = first;
+
+        for (short i = table.seek(scan, filters); i != -1; i = table.seek(scan, filters)) {
+            short position = end;
+
+            while (position > first && isBefore(table, i, order[(short) (position - 1)])) {
+                position--;
+            }
+
+            if ((short) (position - first) < max) {
+                if ((short) (end - first) < max) {
+                    end++;
+                }
 
-        // Getting table index of the row
-        short indexToDelete = selectedData[dataCursor].getIndex();
-        obj.delete(indexToDelete);
+                for (short j = (short) (end - 1); j > position; j--) {
+                    order[j] = order[(short) (j - 1)];
+                }
 
-        // Moving the cursor to the next logical position
-        next();
+                order[position] = i;
+            }
+
+            scan.next();
+        }
+
+        scan.setOrder(order, first, end);
     }
 
     /**
-     * Opens the cursor.
+     * Checks, if the row goes before the other row in the order of the cursor.
+     * @param table table of the rows.
+     * @param rowIndex row to check.
+     * @param otherRowIndex other row.
+     * @return true - if the row goes before the other row.
      */
-    public void open() {
-        this.selectedData = obj.filter(filters);
+    private boolean isBefore(Table table, short rowIndex, short otherRowIndex) {
 
-        if (selectedData.length == 0) {
-            ISOException.throwIt(SCQL_ISO7816.SW_END_OF_TABLE);
+        if (orderColumn == -1) {
+            return false;
         }
 
-        this.dataCursor = 0;
+        short comparison = table.compareRows(rowIndex, otherRowIndex, orderColumn);
+
+        return descending ? comparison > 0 : comparison < 0;
     }
 
     /**
-     * Moves cursor to the next data row.
+     * Moves cursor to the next data row, which applies the filters.
      */
     public void next() {
+        checkPosition();
 
-        // If cursor was not opened
-        if (selectedData == null) {
-            ISOException.throwIt(SCQL_ISO7816.SW_CONDITIONS_NOT_SATISFIED);
-        }
+        scan.next();
+        state[ROW_INDEX] = obj.getTable().seek(scan, filters);
+    }
 
-        dataCursor++;
+    /**
+     * Writes the selected columns of the row, which cursor points to, into the destination array.
+     * @param dest destination array, e.g. the APDU buffer.
+     * @param offset offset in the destination array.
+     * @param limit end of the space in the destination array.
+     * @return offset behind the selected Lp blocks. -1 - if the row doesn't fit into the space.
+     */
+    public short fetch(byte[] dest, short offset, short limit) {
+        checkPosition();
 
-        if (dataCursor > selectedData.length) {
-            ISOException.throwIt(SCQL_ISO7816.SW_END_OF_TABLE);
-        }
+        return obj.getTable().select(state[ROW_INDEX], columnIndexes, dest, offset, limit);
     }
 
     /**
-     * Selects the row data, which cursor points to.
-     * @return pointed {@code Data} cursor row.
+     * Checks, that the cursor is opened and points to the row. The compaction of the table
+     * renumbers the rows, so the cursor opened before the compaction should be reopened. The index scan follows
+     * the changes of the index by other cursors or commands, only the cursor, which row was removed
+     * from the index by them, should be reopened.
      */
-    public byte[] fetch() {
+    protected void checkPosition() {
 
         // If cursor was not opened
-        if (selectedData == null || dataCursor == -1) {
+        if (state[OPENED] == 0) {
             ISOException.throwIt(SCQL_ISO7816.SW_CONDITIONS_NOT_SATISFIED);
         }
 
-        if (dataCursor >= selectedData.length) {
+        if (state[ROW_INDEX] == -1) {
             ISOException.throwIt(SCQL_ISO7816.SW_END_OF_TABLE);
         }
 
-        Data data = selectedData[dataCursor];
+        Table table = obj.getTable();
 
-        if (data == null) {
-            ISOException.throwIt(SCQL_ISO7816.SW_DATA_INVALID);
+        if (table == null) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
         }
 
-        byte[] columns = data.getData();
-
-        return DatabaseUtil.selectColumnsByIndexes(columns, columnIndexes);
-    }
-
-    /**
-     * Moves the cursor to the next row and returns the selected data.
-     * @return selected data of the next row.
-     */
-    public byte[] fetchNext() {
-        byte[] result = fetch();
-        next();
-        return result;
+        if (table.getVersion() != state[VERSION] || !scan.follow(state[ROW_INDEX])) {
+            ISOException.throwIt(SCQL_ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+        }
     }
 
     public short getColumnsCount() {
         return (short) this.columnIndexes.length;
     }
 
-    public Filterable getObj() {
+    public Performable getObj() {
         return obj;
     }
 
@@ -189,19 +369,19 @@ public class Cursor {
         this.filters = filters;
     }
 
-    public Data[] getSelectedData() {
-        return selectedData;
-    }
-
-    public void setSelectedData(Data[] selectedData) {
-        this.selectedData = selectedData;
+    public boolean isOpened() {
+        return state[OPENED] != 0;
     }
 
-    public short getDataCursor() {
-        return dataCursor;
+    /**
+     * Checks if the opened cursor moved behind the last row.
+     * @return true - if there are no more rows to fetch. false - otherwise.
+     */
+    public boolean isEndOfTable() {
+        return state[OPENED] != 0 && state[ROW_INDEX] == -1;
     }
 
-    public void setDataCursor(short dataCursor) {
-        this.dataCursor = dataCursor;
+    public short getRowIndex() {
+        return state[ROW_INDEX];
     }
 }
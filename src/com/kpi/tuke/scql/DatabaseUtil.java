@@ -26,168 +26,293 @@ public class DatabaseUtil {
         return false;
     }
 
-    public static byte[] replace(byte[] src, byte[] value, short columnIndex) {
-        return null;
-    }
-
-    public static boolean isObjExistsWithName(Performable[] objs, short length, byte[] name) {
+    /**
+     * Copies the row with the new Lp block of the column value. The source and the destination
+     * can be the same array, then the row is changed in place.
+     * @param src array with the row.
+     * @param rowOffset offset of the row.
+     * @param rowEnd end of the row.
+     * @param valueOffset offset of the replaced value, which is preceded by its Lp.
+     * @param value array with the new value.
+     * @param offset offset of the new value.
+     * @param length length of the new value.
+     * @param dest array for the new row.
+     * @param destOffset offset of the new row.
+     * @return end of the new row in the destination array.
+     */
+    public static short replace(byte[] src, short rowOffset, short rowEnd, short valueOffset,
+                                byte[] value, short offset, short length, byte[] dest, short destOffset) {
 
-        if (objs == null || name == null) {
-            ISOException.throwIt(SCQL_ISO7816.SW_DATA_INVALID);
-        }
+        short oldLength = src[(short) (valueOffset - 1)];
+        short newValueOffset = (short) (destOffset + valueOffset - rowOffset);
+        short suffixOffset = (short) (valueOffset + oldLength);
 
-        for (short i = 0; i < length; i++) {
-            Performable obj = objs[i];
+        // The columns behind the value are moved first, the value can overwrite them in place
+        short end = Util.arrayCopy(src, suffixOffset, dest, (short) (newValueOffset + length), (short) (rowEnd - suffixOffset));
 
-            if (obj != null && compare(obj.getName(), name)) {
-                return true;
-            }
+        if (dest != src || destOffset != rowOffset) {
+            Util.arrayCopy(src, rowOffset, dest, destOffset, (short) (valueOffset - rowOffset));
         }
 
-        return false;
-    }
+        dest[(short) (newValueOffset - 1)] = (byte) length;
+        Util.arrayCopy(value, offset, dest, newValueOffset, length);
 
-    public static boolean isTableExists(Table[] tables, short length, byte[] tableName) {
-        short index = getTableIndexByName(tables, length, tableName);
-        return index != -1;
+        return end;
     }
 
-    public static Performable getSearchableByName(Performable[] objs, short length, byte[] name) {
+    /**
+     * The method compares byte array with the block of bytes inside the source array
+     * @param name array to compare
+     * @param src source array with the block of bytes
+     * @param offset offset of the block in the source array
+     * @param length length of the block
+     * @return true - if length and data are equal, false - otherwise
+     */
+    public static boolean compare(byte[] name, byte[] src, short offset, short length) {
 
-        if (objs == null || name == null) {
+        if (name == null || src == null) {
             ISOException.throwIt(SCQL_ISO7816.SW_DATA_INVALID);
         }
 
-        for (short i = 0; i < length; i++) {
-            Performable obj = objs[i];
-
-            if (obj != null && obj.getName().length == name.length && compare(obj.getName(), name)) {
-                return obj;
-            }
-
+        if (name.length == length) {
+            return Util.arrayCompare(name, (short) 0, src, offset, length) == 0;
         }
 
-        return null;
+        return false;
     }
 
-    public static Table getTableByName(Table[] tables, short length, byte[] tableName) {
-        short index = getTableIndexByName(tables, length, tableName);
-
-        if (index != -1) {
-            return tables[index];
-        }
-
-        return null;
-    }
+    /**
+     * Searches the object by the name, which is stored as a block of bytes in the source array.
+     * The name is not copied, so the lookup does not allocate any memory.
+     * @param objs objects to search
+     * @param length amount of objects in the array
+     * @param src source array with the name
+     * @param offset offset of the name in the source array
+     * @param nameLength length of the name
+     * @return index of the object with the name. -1 - otherwise.
+     */
+    public static short getIndexByName(Performable[] objs, short length, byte[] src, short offset, short nameLength) {
 
-    public static short getTableIndexByName(Table[] tables, short length, byte[] tableName) {
-        if (tables == null || tableName == null) {
+        if (objs == null || src == null) {
             ISOException.throwIt(SCQL_ISO7816.SW_DATA_INVALID);
         }
 
         for (short i = 0; i < length; i++) {
-            Table table = tables[i];
+            Performable obj = objs[i];
 
-            if (table != null && compare(table.getTableName(), tableName)) {
+            if (obj != null && compare(obj.getName(), src, offset, nameLength)) {
                 return i;
             }
-
         }
 
         return -1;
     }
 
-    public static short getViewIndexByName(View[] views, short length, byte[] viewName) {
-        if (views == null || viewName == null) {
-            ISOException.throwIt(SCQL_ISO7816.SW_DATA_INVALID);
-        }
+    public static boolean isObjExistsWithName(Performable[] objs, short length, byte[] src, short offset, short nameLength) {
+        return getIndexByName(objs, length, src, offset, nameLength) != -1;
+    }
 
-        for (short i = 0; i < length; i++) {
-            View view = views[i];
+    public static boolean isTableExists(Table[] tables, short length, byte[] src, short offset, short nameLength) {
+        return getTableIndexByName(tables, length, src, offset, nameLength) != -1;
+    }
 
-            if (view != null && compare(view.getViewName(), viewName)) {
-                return i;
-            }
+    public static Performable getSearchableByName(Performable[] objs, short length, byte[] src, short offset, short nameLength) {
+        short index = getIndexByName(objs, length, src, offset, nameLength);
 
+        if (index != -1) {
+            return objs[index];
         }
 
-        return -1;
+        return null;
     }
 
-    public static boolean isEqual(byte[] data1, byte[] data2) {
-        return compareArrays(data1, data2) == 0;
-    }
+    public static Table getTableByName(Table[] tables, short length, byte[] src, short offset, short nameLength) {
+        short index = getTableIndexByName(tables, length, src, offset, nameLength);
 
-    public static boolean isNotEqual(byte[] data1, byte[] data2) {
-        return !isEqual(data1, data2);
-    }
+        if (index != -1) {
+            return tables[index];
+        }
 
-    public static boolean isLessThan(byte[] data1, byte[] data2) {
-        return compareArrays(data1, data2) < 0;
+        return null;
     }
 
-    public static boolean isGreaterThan(byte[] data1, byte[] data2) {
-        return compareArrays(data1, data2) > 0;
+    public static short getTableIndexByName(Table[] tables, short length, byte[] src, short offset, short nameLength) {
+        return getIndexByName(tables, length, src, offset, nameLength);
     }
 
-    public static boolean isLessOrEqual(byte[] data1, byte[] data2) {
-        return compareArrays(data1, data2) <= 0;
+    public static short getViewIndexByName(View[] views, short length, byte[] src, short offset, short nameLength) {
+        return getIndexByName(views, length, src, offset, nameLength);
     }
 
-    public static boolean isGreaterOrEqual(byte[] data1, byte[] data2) {
-        return compareArrays(data1, data2) >= 0;
+    /**
+     * Searches the column index by the name in the block of the column names.
+     * @param columns array with the Lp blocks of the column names.
+     * @param columnsOffset offset of the first column name.
+     * @param columnsN amount of the columns.
+     * @param src source array with the name of desired column.
+     * @param offset offset of the column name in the source array.
+     * @param length length of the column name.
+     * @return index of the column, if the column name exists. -1 - otherwise.
+     */
+    public static short getColumnIndexByName(byte[] columns, short columnsOffset, short columnsN,
+                                             byte[] src, short offset, short length) {
+        short index = columnsOffset;
+        for (short i = 0; i < columnsN; i++) {
+            short columnLength = columns[index];
+            index++;
+
+            if (columnLength == length) {
+                if (Util.arrayCompare(columns, index, src, offset, length) == 0) {
+                    return i;
+                }
+            }
+
+            index += columnLength;
+        }
+
+        return -1;
     }
 
-    public static short compareArrays(byte[] array1, byte[] array2) {
-        short length1 = (short) array1.length;
-        short length2 = (short) array2.length;
-        short limit = length1;
+    /**
+     * Compares two blocks of bytes in place, the bytes are compared as unsigned values.
+     * @param src source array.
+     * @param srcOffset offset of the block in the source array.
+     * @param srcLength length of the block in the source array.
+     * @param dest destination array.
+     * @param destOffset offset of the block in the destination array.
+     * @param destLength length of the block in the destination array.
+     * @return negative if source block is smaller, positive if larger, 0 - if blocks are equal.
+     */
+    public static short compareArrays(byte[] src, short srcOffset, short srcLength,
+                                      byte[] dest, short destOffset, short destLength) {
+        short limit = srcLength;
 
-        if (length1 > length2) {
-            limit = length2;
+        if (srcLength > destLength) {
+            limit = destLength;
         }
 
         for (short i = 0; i < limit; i++) {
-            byte byte1 = (byte) (array1[i] & 0xFF); // Convert to unsigned
-            byte byte2 = (byte) (array2[i] & 0xFF); // Convert to unsigned
+            short byte1 = (short) (src[(short) (srcOffset + i)] & 0xFF); // Convert to unsigned
+            short byte2 = (short) (dest[(short) (destOffset + i)] & 0xFF); // Convert to unsigned
             if (byte1 != byte2) {
-                return (short) (byte1 - byte2); // Negative if array1 is smaller, positive if larger
+                return (short) (byte1 - byte2); // Negative if src is smaller, positive if larger
             }
         }
 
-        return (short) (length1 - length2); // Compare lengths if all corresponding bytes are equal
+        return (short) (srcLength - destLength); // Compare lengths if all corresponding bytes are equal
     }
 
-    public static byte[] selectColumnsByIndexes(byte[] data, byte[] columnIndexes) {
+    /**
+     * Compares two blocks of characters in place. The shorter block is padded with spaces.
+     * @param src source array.
+     * @param srcOffset offset of the block in the source array.
+     * @param srcLength length of the block in the source array.
+     * @param dest destination array.
+     * @param destOffset offset of the block in the destination array.
+     * @param destLength length of the block in the destination array.
+     * @return negative if source block is smaller, positive if larger, 0 - if blocks are equal.
+     */
+    public static short compareChars(byte[] src, short srcOffset, short srcLength,
+                                     byte[] dest, short destOffset, short destLength) {
+        short limit = srcLength;
 
-        short lc = 0;
+        if (srcLength < destLength) {
+            limit = destLength;
+        }
 
-        // Counting Lc for all column indexes
-        for (short i = 0; i < columnIndexes.length; i++) {
-            short lpIndex = getOffset(data, columnIndexes[i]);
-            lc += (short) (data[lpIndex] + 1);
+        for (short i = 0; i < limit; i++) {
+            short byte1 = i < srcLength ? (short) (src[(short) (srcOffset + i)] & 0xFF) : 0x20;
+            short byte2 = i < destLength ? (short) (dest[(short) (destOffset + i)] & 0xFF) : 0x20;
+            if (byte1 != byte2) {
+                return (short) (byte1 - byte2);
+            }
         }
 
-        byte[] shorterData = new byte[lc];
-        short dataIndex = 0;
+        return 0;
+    }
+
+    /**
+     * Compares two signed numbers.
+     * @param number1 first number.
+     * @param number2 second number.
+     * @return -1 if the first number is smaller, 1 if larger, 0 - if numbers are equal.
+     */
+    public static short compareShorts(short number1, short number2) {
+        if (number1 < number2) {
+            return -1;
+        }
 
-        for (short i = 0; i < columnIndexes.length; i++) {
-            short lpIndex = getOffset(data, columnIndexes[i]);
-            short lp = data[lpIndex];
+        return number1 > number2 ? (short) 1 : (short) 0;
+    }
 
-            shorterData[dataIndex] = (byte) lp;
-            dataIndex++;
+    /**
+     * Adds the signed big-endian number to the signed 4 bytes big-endian sum in place.
+     * @param sum array with the sum.
+     * @param sumOffset offset of the sum.
+     * @param value array with the number.
+     * @param offset offset of the number.
+     * @param length length of the number, 1 to 4 bytes.
+     * @return false - if the sum overflows. true - otherwise.
+     */
+    public static boolean addSigned(byte[] sum, short sumOffset, byte[] value, short offset, short length) {
+        short extension = value[offset] < 0 ? (short) 0xFF : (short) 0;
+        boolean sameSign = (sum[sumOffset] < 0) == (value[offset] < 0);
+        boolean negative = sum[sumOffset] < 0;
+        short carry = 0;
+
+        for (short i = 3; i >= 0; i--) {
+            short valueIndex = (short) (i - 4 + length);
+            short number = valueIndex >= 0 ? (short) (value[(short) (offset + valueIndex)] & 0xFF) : extension;
+
+            carry = (short) ((sum[(short) (sumOffset + i)] & 0xFF) + number + carry);
+            sum[(short) (sumOffset + i)] = (byte) carry;
+            carry = (short) (carry >> 8);
+        }
 
-            Util.arrayCopy(data, (short) (lpIndex + 1), shorterData, dataIndex, lp);
+        // Adding the numbers of the same sign can't change the sign
+        return !sameSign || (sum[sumOffset] < 0) == negative;
+    }
 
-            dataIndex += lp;
+    /**
+     * Checks the result of the comparison against the filter operand.
+     * @param operand filter operand.
+     * @param comparison result of {@code compareArrays} of the column and the filter value.
+     * @return true - if the operand is applied. false - otherwise.
+     */
+    public static boolean isOperandApply(byte operand, short comparison) {
+        switch (operand) {
+            case 0x3d:
+                return comparison == 0;
+            case 0x3c:
+                return comparison < 0;
+            case 0x3e:
+                return comparison > 0;
+            case 0x4c:
+                return comparison <= 0;
+            case 0x47:
+                return comparison >= 0;
+            case 0x23:
+                return comparison != 0;
+            default:
+                ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
         }
 
-        return shorterData;
+        return false;
     }
 
     public static short getOffset(byte[] data, short columnIndex) {
-        short indexOffset = 0;
+        return getOffset(data, (short) 0, columnIndex);
+    }
+
+    /**
+     * Gets the offset of the column Lp in the row.
+     * @param data array with the row.
+     * @param offset offset of the row in the array.
+     * @param columnIndex index of the column.
+     * @return offset of the column Lp.
+     */
+    public static short getOffset(byte[] data, short offset, short columnIndex) {
+        short indexOffset = offset;
 
         // Offset
         for (short i = 0; i < columnIndex; i++) {
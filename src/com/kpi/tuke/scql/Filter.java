@@ -1,30 +1,51 @@
 package com.kpi.tuke.scql;
 
 /**
- * The class holds information about a filter definition, such as the column name to be applied,
+ * The class holds information about a filter definition, such as the column index to be applied,
  * the operand to filter, and the value to filter the column.
+ * The column index is resolved from the column name once, when the filter is declared.
+ * The value is the block of the array, so the reused filters of the set commands keep their values
+ * in one transient array. The filter never refers the APDU buffer, which can't be stored in the field.
  */
 public class Filter {
 
-    private byte[] columnName;
+    private short columnIndex;
     private byte operand;
     private byte[] value;
+    private short valueOffset;
+    private short valueLength;
 
     public Filter() {
+        this.columnIndex = -1; // not defined
     }
 
-    public Filter(byte[] columnName, byte operand, byte[] value) {
-        this.columnName = columnName;
+    public Filter(short columnIndex, byte operand, byte[] value) {
+        this.columnIndex = columnIndex;
         this.operand = operand;
         this.value = value;
+        this.valueOffset = 0;
+        this.valueLength = (short) value.length;
     }
 
-    public byte[] getColumnName() {
-        return columnName;
+    /**
+     * Checks if the filter can be applied for the row.
+     * @param table table of the row.
+     * @param data array with the row to check.
+     * @param rowOffset offset of the row in the array.
+     * @return true - if the operand and value are applied. false - otherwise.
+     */
+    public boolean isApply(Table table, byte[] data, short rowOffset) {
+        short comparison = table.compareColumn(data, rowOffset, columnIndex, value, valueOffset, valueLength);
+
+        return DatabaseUtil.isOperandApply(operand, comparison);
+    }
+
+    public short getColumnIndex() {
+        return columnIndex;
     }
 
-    public void setColumnName(byte[] columnName) {
-        this.columnName = columnName;
+    public void setColumnIndex(short columnIndex) {
+        this.columnIndex = columnIndex;
     }
 
     public byte getOperand() {
@@ -40,6 +61,26 @@ public class Filter {
     }
 
     public void setValue(byte[] value) {
+        setValue(value, (short) 0, (short) value.length);
+    }
+
+    /**
+     * Sets the value, which is the block of the array. The value is not copied.
+     * @param value array with the value.
+     * @param offset offset of the value.
+     * @param length length of the value.
+     */
+    public void setValue(byte[] value, short offset, short length) {
         this.value = value;
+        this.valueOffset = offset;
+        this.valueLength = length;
+    }
+
+    public short getValueOffset() {
+        return valueOffset;
+    }
+
+    public short getValueLength() {
+        return valueLength;
     }
 }
@@ -8,8 +8,10 @@ public interface Filterable {
     /**
      * Definition of the filter methods.
      * @param filters filters to apply.
-     * @return filtered {@code Data} by applied filters.
+     * @param rowIndexes array for the table indexes of the filtered rows.
+     * @param offset offset of the filtered rows in the array.
+     * @return number of the filtered rows.
      */
-    Data[] filter(Filter[] filters);
+    short filter(Filter[] filters, short[] rowIndexes, short offset);
 
 }
@@ -0,0 +1,243 @@
+package com.kpi.tuke.scql;
+
+import javacard.framework.ISOException;
+import javacard.framework.Util;
+
+/**
+ * Sorted secondary index on the table column. The index holds the table row indexes ordered by
+ * the column value, so the rows applying the filter on the column are found by the binary search
+ * and read as the range of the index positions.
+ * The row indexes are kept as the 2 bytes entries of the byte arrays of {@code SEGMENT_SIZE} entries,
+ * which are allocated as the index grows, like the segments of the table rows. The entries are shifted
+ * by one array copy in every segment and the boundary entry is moved to the neighbouring segment.
+ * The version of the index is changed by every added or removed entry, so the open scans of the index
+ * find their positions again.
+ */
+public class Index {
+
+    private static final short SEGMENT_SHIFT = 3;
+    private static final short SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final short SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private Table table;
+    private short columnIndex;
+    private Object[] segments;
+    private short count;
+    private short version;
+
+    public Index(Table table, short columnIndex) {
+        this.table = table;
+        this.columnIndex = columnIndex;
+        this.segments = new Object[(short) ((short) (table.getCapacity().getMaxRows() + SEGMENT_MASK) >> SEGMENT_SHIFT)];
+        this.count = 0;
+    }
+
+    /**
+     * Adds the table row into the index, keeping the order of the column values.
+     * Rows with equal values are kept in the insertion order.
+     * @param rowIndex table row index.
+     */
+    public void add(short rowIndex) {
+
+        if (count >= table.getCapacity().getMaxRows()) {
+            ISOException.throwIt(SCQL_ISO7816.SW_FILE_FULL);
+        }
+
+        // The segments stay allocated, when the entries are removed, and they are reused by the next entries
+        short segment = (short) (count >> SEGMENT_SHIFT);
+
+        if (segments[segment] == null) {
+            segments[segment] = new byte[(short) (SEGMENT_SIZE * 2)];
+        }
+
+        byte[] data = table.getRowData(rowIndex);
+        short offset = table.getColumnOffset(data, table.getRowOffset(rowIndex), columnIndex);
+
+        short position = upperBound(data, offset, table.getColumnLength(data, offset, columnIndex));
+
+        // Shifting the entries behind the position forward, starting by the last segment
+        for (segment = (short) (count >> SEGMENT_SHIFT); segment >= (short) (position >> SEGMENT_SHIFT); segment--) {
+            byte[] entries = (byte[]) segments[segment];
+            short base = (short) (segment << SEGMENT_SHIFT);
+            short first = position > base ? (short) (position - base) : 0;
+            short end = (short) (count - base) < SEGMENT_SIZE ? (short) (count - base) : SEGMENT_SIZE;
+
+            if (first >= end) {
+                continue;
+            }
+
+            if (end == SEGMENT_SIZE) {
+                end--;
+                Util.setShort((byte[]) segments[(short) (segment + 1)], (short) 0, Util.getShort(entries, (short) (end * 2)));
+            }
+
+            Util.arrayCopy(entries, (short) (first * 2), entries, (short) ((short) (first + 1) * 2), (short) ((short) (end - first) * 2));
+        }
+
+        setEntry(position, rowIndex);
+        count++;
+        version++;
+    }
+
+    /**
+     * Removes the table row from the index.
+     * @param rowIndex deleted table row index.
+     */
+    public void remove(short rowIndex) {
+        short position = getPosition(rowIndex);
+
+        if (position == -1) {
+            return;
+        }
+
+        short last = (short) (count - 1);
+
+        // Shifting only the entries behind the removed one back, starting by the segment of the removed entry
+        for (short segment = (short) (position >> SEGMENT_SHIFT); segment <= (short) (last >> SEGMENT_SHIFT); segment++) {
+            byte[] entries = (byte[]) segments[segment];
+            short base = (short) (segment << SEGMENT_SHIFT);
+            short first = position > base ? (short) (position - base) : 0;
+            short end = (short) (last - base) < SEGMENT_SIZE ? (short) (last - base) : SEGMENT_SIZE;
+
+            if (end == SEGMENT_SIZE) {
+                end--;
+                Util.arrayCopy(entries, (short) ((short) (first + 1) * 2), entries, (short) (first * 2), (short) ((short) (end - first) * 2));
+                Util.setShort(entries, (short) (end * 2), Util.getShort((byte[]) segments[(short) (segment + 1)], (short) 0));
+            } else {
+                Util.arrayCopy(entries, (short) ((short) (first + 1) * 2), entries, (short) (first * 2), (short) ((short) (end - first) * 2));
+            }
+        }
+
+        // Clearing the last entry
+        setEntry(last, (short) -1);
+        count = last;
+        version++;
+    }
+
+    /**
+     * Empties the dropped index, so its open scans don't find their rows anymore.
+     */
+    public void drop() {
+        count = 0;
+        version++;
+    }
+
+    /**
+     * Changes the ID of the row moved by the compaction of the table.
+     * @param rowIndex old table row index.
+     * @param newRowIndex new table row index.
+     */
+    public void renumber(short rowIndex, short newRowIndex) {
+        short position = getPosition(rowIndex);
+
+        if (position != -1) {
+            setEntry(position, newRowIndex);
+        }
+    }
+
+    /**
+     * Finds the first index position, which column value is not less than the value.
+     * @param value array with the value.
+     * @param offset offset of the value.
+     * @param length length of the value.
+     * @return index position.
+     */
+    public short lowerBound(byte[] value, short offset, short length) {
+        return search(value, offset, length, false);
+    }
+
+    /**
+     * Finds the first index position, which column value is greater than the value.
+     * @param value array with the value.
+     * @param offset offset of the value.
+     * @param length length of the value.
+     * @return index position.
+     */
+    public short upperBound(byte[] value, short offset, short length) {
+        return search(value, offset, length, true);
+    }
+
+    private short search(byte[] value, short offset, short length, boolean upper) {
+        short low = 0;
+        short high = count;
+
+        while (low < high) {
+            short middle = (short) ((short) (low + high) >> 1);
+            short comparison = compareRow(getEntry(middle), value, offset, length);
+
+            if (comparison < 0 || (upper && comparison == 0)) {
+                low = (short) (middle + 1);
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Checks if any row of the index has the column value.
+     * @param value array with the value.
+     * @param offset offset of the value.
+     * @param length length of the value.
+     * @return true - if the value exists. false - otherwise.
+     */
+    public boolean contains(byte[] value, short offset, short length) {
+        short position = lowerBound(value, offset, length);
+
+        return position < count && compareRow(getEntry(position), value, offset, length) == 0;
+    }
+
+    private short compareRow(short rowIndex, byte[] value, short offset, short length) {
+        return table.compareColumn(table.getRowData(rowIndex), table.getRowOffset(rowIndex), columnIndex, value, offset, length);
+    }
+
+    /**
+     * Finds the index position of the table row.
+     * @param rowIndex table row index.
+     * @return index position. -1 - if the row is not in the index.
+     */
+    public short getPosition(short rowIndex) {
+        for (short i = 0; i < count; i++) {
+            if (getEntry(i) == rowIndex) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Gets the table row at the index position.
+     * @param position index position.
+     * @return table row index. -1 - if the position is behind the last entry.
+     */
+    public short getRowIndex(short position) {
+
+        if (position < 0 || position >= count) {
+            return -1;
+        }
+
+        return getEntry(position);
+    }
+
+    private short getEntry(short position) {
+        return Util.getShort((byte[]) segments[(short) (position >> SEGMENT_SHIFT)], (short) ((short) (position & SEGMENT_MASK) * 2));
+    }
+
+    private void setEntry(short position, short rowIndex) {
+        Util.setShort((byte[]) segments[(short) (position >> SEGMENT_SHIFT)], (short) ((short) (position & SEGMENT_MASK) * 2), rowIndex);
+    }
+
+    public short getColumnIndex() {
+        return columnIndex;
+    }
+
+    public short getVersion() {
+        return version;
+    }
+
+    public short getCount() {
+        return count;
+    }
+}
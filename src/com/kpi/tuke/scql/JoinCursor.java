@@ -0,0 +1,246 @@
+package com.kpi.tuke.scql;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+
+/**
+ * Join cursor selects the rows of two tables, which have the equal values in the join columns (inner equi-join).
+ * The left table is scanned by the cursor as the outer loop. For every left row, the right table is scanned
+ * as the inner loop: only the index range of the left value is scanned, if the right join column is indexed,
+ * otherwise the whole right table is scanned with the right filters.
+ * The fetched row contains the selected columns of the left row followed by the selected columns of the right row.
+ * The rows of the join can't be deleted or updated.
+ */
+public class JoinCursor extends Cursor {
+
+    private static final byte RIGHT_ROW_INDEX = 0;
+    private static final byte RIGHT_VERSION = 1;
+    private static final byte VALUE_OFFSET = 2;
+    private static final byte VALUE_LENGTH = 3;
+
+    private short leftColumn;
+    private Table right;
+    private short rightColumn;
+    private byte[] rightColumnIndexes;
+    private Filter[] rightFilters;
+
+    private Scan rightScan;
+    private short[] rightState;
+
+    public JoinCursor(ScratchPool scratch, Table left, short leftColumn, byte[] leftColumnIndexes, Filter[] leftFilters,
+                      Table right, short rightColumn, byte[] rightColumnIndexes, Filter[] rightFilters) {
+        super(scratch, left, leftColumnIndexes, leftFilters);
+
+        this.rightScan = new Scan();
+        this.rightState = JCSystem.makeTransientShortArray((short) 4, JCSystem.CLEAR_ON_DESELECT);
+
+        declare(left, leftColumn, leftColumnIndexes, leftFilters, right, rightColumn, rightColumnIndexes, rightFilters);
+    }
+
+    /**
+     * Declares the join cursor again. The cursor instance and its scans are reused.
+     * @param left left table.
+     * @param leftColumn join column of the left table.
+     * @param leftColumnIndexes selected columns of the left table.
+     * @param leftFilters filters of the left table, can be null.
+     * @param right right table.
+     * @param rightColumn join column of the right table.
+     * @param rightColumnIndexes selected columns of the right table.
+     * @param rightFilters filters of the right table, can be null.
+     */
+    public void declare(Table left, short leftColumn, byte[] leftColumnIndexes, Filter[] leftFilters,
+                        Table right, short rightColumn, byte[] rightColumnIndexes, Filter[] rightFilters) {
+        declare(left, leftColumnIndexes, leftFilters);
+
+        this.leftColumn = leftColumn;
+        this.right = right;
+        this.rightColumn = rightColumn;
+        this.rightColumnIndexes = rightColumnIndexes;
+        this.rightFilters = rightFilters;
+
+        this.rightScan.reset();
+    }
+
+    /**
+     * Removes the references of both tables.
+     */
+    @Override
+    public void removeReference() {
+        super.removeReference();
+        right = null;
+    }
+
+    /**
+     * Checks, if the cursor selects from the table.
+     * @param obj table or view.
+     * @return true - if the table is the left or the right table of the join.
+     */
+    @Override
+    public boolean isReferring(Performable obj) {
+        return super.isReferring(obj) || right == obj;
+    }
+
+    /**
+     * Opens the cursor and positions it on the first pair of the joined rows.
+     */
+    @Override
+    public void open() {
+
+        if (right == null) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+        }
+
+        rightState[RIGHT_VERSION] = right.getVersion();
+
+        super.open();
+
+        initRight();
+        match();
+
+        if (getRowIndex() == -1) {
+            ISOException.throwIt(SCQL_ISO7816.SW_END_OF_TABLE);
+        }
+    }
+
+    /**
+     * Moves the cursor to the next pair of the joined rows.
+     */
+    @Override
+    public void next() {
+        checkPosition();
+
+        rightScan.next();
+        match();
+    }
+
+    /**
+     * Writes the columns of the left row followed by the columns of the right row into the destination array.
+     * @param dest destination array, e.g. the APDU buffer.
+     * @param offset offset in the destination array.
+     * @param limit end of the space in the destination array.
+     * @return offset behind the selected Lp blocks. -1 - if the row doesn't fit into the space.
+     */
+    @Override
+    public short fetch(byte[] dest, short offset, short limit) {
+        offset = super.fetch(dest, offset, limit);
+
+        if (offset == -1) {
+            return -1;
+        }
+
+        return right.select(rightState[RIGHT_ROW_INDEX], rightColumnIndexes, dest, offset, limit);
+    }
+
+    /**
+     * Deletion of the joined rows is not supported.
+     */
+    @Override
+    public void delete() {
+        ISOException.throwIt(SCQL_ISO7816.SW_COMMAND_NOT_ALLOWED);
+    }
+
+    /**
+     * Update of the joined rows is not supported.
+     */
+    @Override
+    public void checkUpdate(short columnIndex, byte[] value, short offset, short length) {
+        ISOException.throwIt(SCQL_ISO7816.SW_COMMAND_NOT_ALLOWED);
+    }
+
+    /**
+     * Update of the joined rows is not supported.
+     */
+    @Override
+    public void update(short columnIndex, byte[] value, short offset, short length) {
+        ISOException.throwIt(SCQL_ISO7816.SW_COMMAND_NOT_ALLOWED);
+    }
+
+    /**
+     * Checks, that the cursor points to the pair of the rows and the right table was not dropped or compacted,
+     * and the right row is still in the index of the right scan.
+     */
+    @Override
+    protected void checkPosition() {
+        super.checkPosition();
+
+        if (right == null) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+        }
+
+        if (right.getVersion() != rightState[RIGHT_VERSION] || !rightScan.follow(rightState[RIGHT_ROW_INDEX])) {
+            ISOException.throwIt(SCQL_ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+        }
+    }
+
+    /**
+     * Finds the right row, which joins the current left row, from the right scan position.
+     * If there is no such row, the cursor moves to the next left row, until the pair is found
+     * or the left rows end.
+     */
+    private void match() {
+
+        while (getRowIndex() != -1) {
+            short rightRowIndex = seekRight();
+
+            if (rightRowIndex != -1) {
+                rightState[RIGHT_ROW_INDEX] = rightRowIndex;
+                return;
+            }
+
+            super.next();
+
+            if (getRowIndex() != -1) {
+                initRight();
+            }
+        }
+    }
+
+    /**
+     * Initializes the right scan for the join value of the current left row.
+     * With the index on the right join column, only the range of the equal values is scanned.
+     */
+    private void initRight() {
+        Table left = getObj().getTable();
+        short leftRowIndex = getRowIndex();
+        byte[] data = left.getRowData(leftRowIndex);
+
+        short valueOffset = left.getColumnOffset(data, left.getRowOffset(leftRowIndex), leftColumn);
+        short length = left.getColumnLength(data, valueOffset, leftColumn);
+
+        rightState[VALUE_OFFSET] = valueOffset;
+        rightState[VALUE_LENGTH] = length;
+
+        Index index = right.getIndex(rightColumn);
+
+        if (index == null) {
+            right.initScan(rightScan, rightFilters);
+        } else {
+            rightScan.setRange(index, index.lowerBound(data, valueOffset, length), index.upperBound(data, valueOffset, length));
+        }
+    }
+
+    /**
+     * Finds the right row from the right scan position, which applies the right filters and has
+     * the join value of the current left row.
+     * @return index of the right row. -1 - if there is no such row.
+     */
+    private short seekRight() {
+        byte[] data = getObj().getTable().getRowData(getRowIndex());
+
+        for (short i = right.seek(rightScan, rightFilters); i != -1; i = right.seek(rightScan, rightFilters)) {
+            if (right.compareColumn(right.getRowData(i), right.getRowOffset(i), rightColumn,
+                    data, rightState[VALUE_OFFSET], rightState[VALUE_LENGTH]) == 0) {
+                return i;
+            }
+
+            rightScan.next();
+        }
+
+        return -1;
+    }
+
+    @Override
+    public short getColumnsCount() {
+        return (short) (super.getColumnsCount() + rightColumnIndexes.length);
+    }
+}
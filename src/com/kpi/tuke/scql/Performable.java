@@ -8,8 +8,15 @@ package com.kpi.tuke.scql;
 public interface Performable extends Filterable {
 	byte[] getName();
     short getColumnN();
-    short getColumnIndexByName(byte[] columnName);
-    void update(byte[] data, short columnIndex);
+    Table getTable();
+    short getColumnIndexByName(byte[] src, short offset, short length);
+    short getTableColumnIndex(short columnIndex);
+    Filter[] getFilters();
+    void initScan(Scan scan, Filter[] filters);
+    short seek(Scan scan, Filter[] filters);
+    short select(short rowIndex, byte[] columnIndexes, byte[] dest, short offset, short limit);
+    void checkUpdate(short rowIndex, short columnIndex, byte[] value, short offset, short length);
+    void update(short rowIndex, short columnIndex, byte[] value, short offset, short length);
     void delete(short columnIndex);
     void drop();
 }
@@ -6,14 +6,61 @@ import javacard.framework.ISO7816;
  * Interface extends the {@code ISO7816} for the SCQL ISO7816-7 constants and APDU statuses.
  */
 public interface SCQL_ISO7816 extends ISO7816 {
+    // Default capacities, which can be changed by the install parameters (see {@code CapacityProfile})
     short MAX_TABLES = 8;
     short MAX_VIEWS = 5;
     short MAX_COLUMNS = 10;
-    short MAX_COLUMN_NAME_LENGTH = 8;
     short MAX_DATA_COLUMN_LENGTH = 15;
     short MAX_ROWS = 25;
+    short MAX_ARENA_SIZE = 0x7FFF;
+
+    // Blocks of MAX_ROWS row indexes in the transient scratch pool, e.g. for the sorted rows of the cursors
+    short SCRATCH_BLOCKS = 4;
+
+    short MAX_COLUMN_NAME_LENGTH = 8;
+    short MAX_FILTERS = 8;
+    short MAX_CURSORS = 4;
+    short MAX_CHANNELS = 4;
+
+    // Tags of the capacities in the install parameters, every tag is followed by 2 bytes value
+    byte CAPACITY_TABLES = 0x01;
+    byte CAPACITY_VIEWS = 0x02;
+    byte CAPACITY_COLUMNS = 0x03;
+    byte CAPACITY_DATA_COLUMN_LENGTH = 0x04;
+    byte CAPACITY_ROWS = 0x05;
+    byte CAPACITY_ARENA_SIZE = 0x06;
+    byte CAPACITY_SCRATCH_BLOCKS = 0x07;
+
+    // Column types, the type of the fixed-width integer is its width in bytes
+    byte TYPE_BYTES = 0x00;
+    byte TYPE_INT8 = 0x01;
+    byte TYPE_INT16 = 0x02;
+    byte TYPE_INT32 = 0x04;
+    byte TYPE_CHAR = 0x08;
+
+    // Aggregate functions
+    byte AGGREGATE_COUNT = 0x01;
+    byte AGGREGATE_MIN = 0x02;
+    byte AGGREGATE_MAX = 0x03;
+    byte AGGREGATE_SUM = 0x04;
+
+    // Flag of the columns count in CREATE TABLE, the column names are followed by the types
+    byte TYPED_COLUMNS = (byte) 0x80;
+
+    // Flag of the columns count in CREATE TABLE, the count is followed by 2 bytes size of the row arena
+    byte ARENA_STORAGE = 0x40;
+
+    // Flag of the columns count in CREATE TABLE, the rows start with the offset directory of the variable columns
+    byte OFFSET_DIRECTORY = 0x20;
+
+    // Flag of the object handle, which can be sent instead of the Lp name of the table or view
+    byte HANDLE_FLAG = (byte) 0x80;
 
     short SW_OBJECT_EXIST = 0x6A89;
     short SW_REFERENCED_OBJ_NOT_FOUND = 0x6A88;
     short SW_END_OF_TABLE = 0x6282;
+
+    // All the blocks of the scratch pool are held by the open cursors, the command can run after a cursor is closed.
+    // The status is used by no other check, the table or the arena, which is full, is reported by SW_FILE_FULL
+    short SW_SCRATCH_FULL = 0x6F01;
 }
@@ -0,0 +1,216 @@
+package com.kpi.tuke.scql;
+
+import javacard.framework.JCSystem;
+
+/**
+ * The class holds the access path, which is used to move through the rows of the table.
+ * Without index, the rows are scanned in the table order. With index, only the range of the
+ * index positions, which applies the indexed filter, is scanned in the index order.
+ * With the order, the rows are scanned in the order of the sorted row indexes.
+ * The access path is kept in the transient memory, as it is changed by every cursor move.
+ * The index scan keeps the version of the index, so the scan, which index was changed by another
+ * cursor or command, finds its current row again before it moves.
+ */
+public class Scan {
+
+    private static final byte POSITION = 0;
+    private static final byte END = 1;
+    private static final byte INDEX_VERSION = 2;
+
+    private Object[] index;
+    private Object[] order;
+    private short[] range;
+
+    public Scan() {
+        this.index = JCSystem.makeTransientObjectArray((short) 1, JCSystem.CLEAR_ON_DESELECT);
+        this.order = JCSystem.makeTransientObjectArray((short) 1, JCSystem.CLEAR_ON_DESELECT);
+        this.range = JCSystem.makeTransientShortArray((short) 3, JCSystem.CLEAR_ON_DESELECT);
+
+        reset();
+    }
+
+    /**
+     * Resets the scan to the full table scan from the first row.
+     */
+    public void reset() {
+        index[0] = null;
+        order[0] = null;
+        range[POSITION] = 0;
+        range[END] = -1; // end of the table
+    }
+
+    /**
+     * Restricts the scan to the range of the index positions, which applies the filter.
+     * @param index index of the filter column.
+     * @param filter filter with the range operand.
+     */
+    public void setRange(Index index, Filter filter) {
+        byte[] value = filter.getValue();
+        short offset = filter.getValueOffset();
+        short length = filter.getValueLength();
+
+        this.index[0] = index;
+        this.range[INDEX_VERSION] = index.getVersion();
+
+        switch (filter.getOperand()) {
+            case 0x3d:
+                range[POSITION] = index.lowerBound(value, offset, length);
+                range[END] = index.upperBound(value, offset, length);
+                break;
+            case 0x3c:
+                range[POSITION] = 0;
+                range[END] = index.lowerBound(value, offset, length);
+                break;
+            case 0x4c:
+                range[POSITION] = 0;
+                range[END] = index.upperBound(value, offset, length);
+                break;
+            case 0x3e:
+                range[POSITION] = index.upperBound(value, offset, length);
+                range[END] = index.getCount();
+                break;
+            case 0x47:
+                range[POSITION] = index.lowerBound(value, offset, length);
+                range[END] = index.getCount();
+                break;
+            default:
+                reset();
+        }
+    }
+
+    /**
+     * Restricts the scan to the range of the index positions.
+     * @param index index to scan.
+     * @param position first index position.
+     * @param end index position behind the range.
+     */
+    public void setRange(Index index, short position, short end) {
+        this.index[0] = index;
+        this.range[POSITION] = position;
+        this.range[END] = end;
+        this.range[INDEX_VERSION] = index.getVersion();
+    }
+
+    /**
+     * Restricts the scan to the rows in the given order.
+     * @param order array with the table row indexes in the scan order.
+     * @param position position of the first row in the array.
+     * @param end position behind the last row in the array.
+     */
+    public void setOrder(short[] order, short position, short end) {
+        reset();
+        this.order[0] = order;
+        this.range[POSITION] = position;
+        this.range[END] = end;
+    }
+
+    /**
+     * Gets the table row index at the current position.
+     * @param rowsCount amount of rows in the table.
+     * @return table row index. -1 - if the scan reached the end.
+     */
+    public short getRowIndex(short rowsCount) {
+        short position = range[POSITION];
+
+        if (order[0] != null) {
+            return position < range[END] ? ((short[]) order[0])[position] : -1;
+        }
+
+        if (index[0] == null) {
+            return position < rowsCount ? position : -1;
+        }
+
+        Index index = (Index) this.index[0];
+
+        // The index can be shorter than the range, which was found on open
+        return position < range[END] && position < index.getCount() ? index.getRowIndex(position) : -1;
+    }
+
+    /**
+     * Moves the scan to the next position.
+     */
+    public void next() {
+        range[POSITION]++;
+    }
+
+    /**
+     * Informs the scan, that the row at the current position was deleted. The table row is left as
+     * the tombstone, so the table scan and the ordered scan move to the next row. The index entry is removed and the following
+     * entries are shifted to the current position, so the end of the index range is moved back
+     * and the scan follows the new version of the index.
+     */
+    public void removed() {
+        if (index[0] != null) {
+            range[END]--;
+            range[INDEX_VERSION] = ((Index) index[0]).getVersion();
+        } else {
+            range[POSITION]++;
+        }
+    }
+
+    /**
+     * Informs the scan, that the row at the current position was updated. If the new value moved
+     * the row forward in the index, the following entries were shifted back, so the scan position
+     * and the end of the range are moved back as well. The row moved forward inside the range
+     * is met again, if it still applies the filters. The scan follows the new version of the index.
+     * @param rowIndex updated table row index.
+     */
+    public void updated(short rowIndex) {
+        Index index = (Index) this.index[0];
+
+        if (index == null) {
+            return;
+        }
+
+        range[INDEX_VERSION] = index.getVersion();
+
+        if (index.getRowIndex(range[POSITION]) == rowIndex) {
+            return;
+        }
+
+        short newPosition = index.getPosition(rowIndex);
+
+        if (newPosition > range[POSITION]) {
+            range[POSITION]--;
+
+            if (newPosition >= range[END]) {
+                range[END]--;
+            }
+        }
+    }
+
+    /**
+     * Follows the changes of the index made by other cursors or commands. The position is moved
+     * to the current row, which could be shifted, and the end of the range is moved to the end of the index,
+     * as the filters are checked for every row anyway.
+     * @param rowIndex table row index at the current position.
+     * @return true - if the scan is positioned. false - if the current row is not in the index anymore.
+     */
+    public boolean follow(short rowIndex) {
+        Index index = (Index) this.index[0];
+
+        if (index == null || index.getVersion() == range[INDEX_VERSION]) {
+            return true;
+        }
+
+        short position = index.getPosition(rowIndex);
+
+        if (position == -1) {
+            return false;
+        }
+
+        range[POSITION] = position;
+        range[END] = index.getCount();
+        range[INDEX_VERSION] = index.getVersion();
+
+        return true;
+    }
+
+    public Index getIndex() {
+        return (Index) index[0];
+    }
+
+    public short getPosition() {
+        return range[POSITION];
+    }
+}
@@ -11,10 +11,11 @@ import javacardx.apdu.ExtendedLength;
 
 /**
  * SCQL Applet class implementing the SCQL handling mechanism by definition of ISO7816-7
+ * The applet can be selected on several logical channels at once, each channel has its own cursors.
  * 
  * @author Roman Danylych
  */
-public class ScqlApplet extends Applet implements ExtendedLength {
+public class ScqlApplet extends Applet implements ExtendedLength, MultiSelectable {
 
     private ScqlDatabase db;
 
@@ -29,17 +30,45 @@ public class ScqlApplet extends Applet implements ExtendedLength {
      *            the length in bytes of the parameter data in bArray
      */
     public static void install(byte[] bArray, short bOffset, byte bLength) {
-    	new ScqlApplet();
+    	new ScqlApplet(new CapacityProfile(bArray, bOffset, bLength));
     }
 
     /**
      * Only this class's install method should create the applet object.
+     * The applet is registered, after the database is created, so the install fails
+     * without the registration, if the capacities don't fit the card.
+     * @param capacity capacity profile from the install parameters.
      */
-    protected ScqlApplet() {
-        register();
+    protected ScqlApplet(CapacityProfile capacity) {
 
         if (this.db == null) {
-            this.db = new ScqlDatabase();
+            this.db = new ScqlDatabase(capacity);
+        }
+
+        register();
+    }
+
+    /**
+     * Selects the applet on the logical channel, also if it is already selected on another channel.
+     * @param appInstAlreadyActive true - if the applet is selected on another channel.
+     * @return true - the applet accepts the selection.
+     */
+    @Override
+    public boolean select(boolean appInstAlreadyActive) {
+        return true;
+    }
+
+    /**
+     * Deselects the applet on the logical channel. The transient cursor state is cleared by the system
+     * only when the applet is deselected on all channels, so the cursors and the bulk insert chain
+     * of the channel are closed here.
+     * @param appInstStillActive true - if the applet stays selected on another channel.
+     */
+    @Override
+    public void deselect(boolean appInstStillActive) {
+        if (db != null) {
+            db.closeCursors(JCSystem.getAssignedChannel());
+            db.cancelInsertRows(JCSystem.getAssignedChannel());
         }
     }
 
@@ -108,6 +137,17 @@ public class ScqlApplet extends Applet implements ExtendedLength {
         
         short memoryConsumption = JCSystem.getAvailableMemory(JCSystem.MEMORY_TYPE_PERSISTENT);
 
+        db.releaseScratch();
+
+        // Only the bulk insert can be chained, any other command cancels the chain of its channel
+        if (buffer[ISO7816.OFFSET_P2] != (byte) 0x91) {
+            db.cancelInsertRows(APDU.getCLAChannel());
+
+            if (apdu.isCommandChainingCLA()) {
+                ISOException.throwIt(ISO7816.SW_COMMAND_CHAINING_NOT_SUPPORTED);
+            }
+        }
+
         switch (buffer[ISO7816.OFFSET_P2]) {
             case (byte) 0x80:
                 db.createTable(apdu);
@@ -122,10 +162,10 @@ public class ScqlApplet extends Applet implements ExtendedLength {
             	db.declareCursor(apdu);
             	return;
             case (byte) 0x88:
-                db.open();
+                db.open(apdu);
                 return;
             case (byte) 0x89:
-                db.next();
+                db.next(apdu);
                 return;
             case (byte) 0x8a:
                 db.fetch(apdu);
@@ -133,14 +173,44 @@ public class ScqlApplet extends Applet implements ExtendedLength {
             case (byte) 0x8b:
                 db.fetchNext(apdu);
                 return;
+            case (byte) 0x90:
+                db.fetchRows(apdu);
+                return;
+            case (byte) 0x91:
+                db.insertRows(apdu);
+                return;
+            case (byte) 0x92:
+                db.createIndex(apdu);
+                return;
+            case (byte) 0x93:
+                db.dropIndex(apdu);
+                return;
+            case (byte) 0x94:
+                db.compact(apdu);
+                return;
+            case (byte) 0x95:
+                db.deleteWhere(apdu);
+                return;
+            case (byte) 0x96:
+                db.updateWhere(apdu);
+                return;
+            case (byte) 0x97:
+                db.aggregate(apdu);
+                return;
+            case (byte) 0x98:
+                db.declareJoin(apdu);
+                return;
             case (byte) 0x83:
                 db.dropTable(apdu);
                 return;
             case (byte) 0x84:
                 db.dropView(apdu);
                 return;
+            case (byte) 0x8d:
+                db.update(apdu);
+                return;
             case (byte) 0x8e:
-                db.delete();
+                db.delete(apdu);
                 return;
             default:
                 ISOException.throwIt(ISO7816.SW_FUNC_NOT_SUPPORTED);
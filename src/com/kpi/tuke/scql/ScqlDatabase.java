@@ -8,71 +8,266 @@ import javacard.framework.Util;
 /**
  * SCQL Database is the implementation of the ISO7816-7 SCQL commands in the smart cards.
  * The database contains table, view and cursor instances and methods to their modification.
+ * CREATE TABLE and CREATE VIEW return the 1 byte handle of the object, which the commands accept
+ * instead of the Lp name. The handle is {@code HANDLE_FLAG}, 3 bits version and 4 bits slot,
+ * the version of the slot is changed on drop, so the handle of the dropped object is not valid anymore.
+ * The cursors are prepared: each of {@code MAX_CURSORS} cursors is declared once under the ID in P1
+ * and can be opened again as many times as needed, the cursor commands address the cursor by P1 as well.
+ * Every logical channel has its own cursors, the tables and views are shared by all channels.
  */
 public class ScqlDatabase {
 
+    private CapacityProfile capacity;
+
     private Table[] tables;
     private View[] views;
-    private Cursor cursor = null;
+    private Cursor[] cursors;
 
     private byte tableCursor;
     private byte viewCursor;
 
+    private Performable[] handles;
+    private byte[] handleVersions;
+
     private short byteIndex = 0;
+    private short readEnd = 0;
+
+    // Bulk insert state, which is kept between the chained commands of the channel
+    private static final byte BULK_ROWS_REMAINING = 0;
+    private static final byte BULK_ROW_FILL = 1;
+    private static final byte BULK_CHANNEL = 2;
+
+    private Object[] bulkTable;
+    private short[] bulkState;
+    private byte[] bulkRow;
 
-    public ScqlDatabase() {
-        this.tables = new Table[SCQL_ISO7816.MAX_TABLES];
-        this.views = new View[SCQL_ISO7816.MAX_VIEWS];
+    // Stored row, which is rebuilt by the update of the table near the full arena
+    private byte[] rowBuffer;
+
+    // Filters of the set commands, which are reused by every command, and their values
+    private Object[] whereFilters;
+    private byte[] whereValues;
+    private Scan aggregateScan;
+
+    // Intermediate rows of the queries in the transient memory
+    private ScratchPool scratch;
+
+    /**
+     * Creates the database with the capacities of the profile.
+     * @param capacity - checked capacity profile.
+     */
+    public ScqlDatabase(CapacityProfile capacity) {
+        this.capacity = capacity;
+        this.tables = new Table[capacity.getMaxTables()];
+        this.views = new View[capacity.getMaxViews()];
         this.tableCursor = 0;
         this.viewCursor = 0;
+        this.cursors = new Cursor[(short) (SCQL_ISO7816.MAX_CHANNELS * SCQL_ISO7816.MAX_CURSORS)];
+
+        this.handles = new Performable[(short) (capacity.getMaxTables() + capacity.getMaxViews())];
+        this.handleVersions = new byte[(short) (capacity.getMaxTables() + capacity.getMaxViews())];
+
+        this.bulkTable = JCSystem.makeTransientObjectArray((short) 1, JCSystem.CLEAR_ON_DESELECT);
+        this.bulkState = JCSystem.makeTransientShortArray((short) 3, JCSystem.CLEAR_ON_DESELECT);
+        this.bulkRow = JCSystem.makeTransientByteArray(capacity.getMaxRowLength(), JCSystem.CLEAR_ON_DESELECT);
+        this.rowBuffer = JCSystem.makeTransientByteArray(capacity.getMaxStoredRowLength(), JCSystem.CLEAR_ON_DESELECT);
+
+        this.whereFilters = new Object[SCQL_ISO7816.MAX_FILTERS];
+        this.whereValues = JCSystem.makeTransientByteArray(capacity.getMaxWhereValuesLength(), JCSystem.CLEAR_ON_DESELECT);
+        this.aggregateScan = new Scan();
+        this.scratch = new ScratchPool(capacity.getScratchBlocks(), capacity.getMaxRows());
     }
 
     /**
      * The method creates new Table instance in the Database
+     * APDU structure: Lp tableName N columns, Lp blocks of column names, optional Lp primary key column name.
+     * If N has the {@code TYPED_COLUMNS} flag, every column name is followed by the column type,
+     * and {@code TYPE_CHAR} is followed by the width of the column.
+     * If N has the {@code ARENA_STORAGE} flag, N is followed by 2 bytes size of the arena, in which the rows are stored.
+     * If N has the {@code OFFSET_DIRECTORY} flag, the rows start with the offset directory of the variable columns.
+     * Response: 1 byte handle of the table.
      * @param apdu - command with necessary table data
      */
     public void createTable(APDU apdu) {
 
-        if (tableCursor >= SCQL_ISO7816.MAX_TABLES) {
+        if (tableCursor >= (short) tables.length) {
             ISOException.throwIt(SCQL_ISO7816.SW_FILE_FULL);
         }
 
-        byte[] buffer = apdu.getBuffer();
-
         byte[] tableMetadata = startRead(apdu);
-        byte lc = buffer[SCQL_ISO7816.OFFSET_LC];
-        byteIndex = tableMetadata[0];
-
-        // Checking table before creating instance
-        byte[] tableName = new byte[byteIndex];
-        Util.arrayCopy(tableMetadata, (short) 1, tableName, (short) 0, byteIndex);
 
         // Checking if table with the name already exist
         // If true, throw error
+        short nameOffset = nextBytesLpOffset(tableMetadata);
+        short nameLength = tableMetadata[nameOffset];
+        nameOffset++;
 
-        if (DatabaseUtil.isObjExistsWithName(tables, tableCursor, tableName)) {
+        if (DatabaseUtil.isObjExistsWithName(tables, tableCursor, tableMetadata, nameOffset, nameLength)) {
             ISOException.throwIt(SCQL_ISO7816.SW_OBJECT_EXIST);
         }
 
         // Checking table number of columns N
         // which should be 0 < N < MAX_COLUMNS
-        byteIndex++;
-        short columnsCount = tableMetadata[byteIndex];
-        if (columnsCount < 1 || columnsCount > SCQL_ISO7816.MAX_COLUMNS) {
+        // The flags of N tell, that every column name is followed by the column type,
+        // that the rows are stored in the arena and that the rows have the offset directory
+        if (byteIndex >= readEnd) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+        }
+
+        boolean typed = (tableMetadata[byteIndex] & SCQL_ISO7816.TYPED_COLUMNS) != 0;
+        boolean arena = (tableMetadata[byteIndex] & SCQL_ISO7816.ARENA_STORAGE) != 0;
+        boolean directory = (tableMetadata[byteIndex] & SCQL_ISO7816.OFFSET_DIRECTORY) != 0;
+        short columnsCount = (short) (tableMetadata[byteIndex]
+                & ~(SCQL_ISO7816.TYPED_COLUMNS | SCQL_ISO7816.ARENA_STORAGE | SCQL_ISO7816.OFFSET_DIRECTORY));
+        if (columnsCount < 1 || columnsCount > capacity.getMaxColumns()) {
             ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
         }
 
-        // Copy columns
         byteIndex++;
-        byte[] columns = new byte[(short) (lc - byteIndex)];
-        Util.arrayCopy(tableMetadata, byteIndex, columns, (short) 0, (short) (lc - byteIndex));
- 
+
+        // Reading the arena size
+        short arenaSize = 0;
+
+        if (arena) {
+            if ((short) (byteIndex + 2) > readEnd) {
+                ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+            }
+
+            arenaSize = Util.getShort(tableMetadata, byteIndex);
+            byteIndex += 2;
+
+            if (arenaSize < 4 || arenaSize > capacity.getMaxArenaSize()) {
+                ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+            }
+        }
+
+        // Reading the column descriptors
+        short columnsOffset = byteIndex;
+        short columnsLength = 0;
+
+        for (short i = 0; i < columnsCount; i++) {
+            short columnOffset = nextBytesLpOffset(tableMetadata);
+            columnsLength += (short) (tableMetadata[columnOffset] + 1);
+
+            if (typed) {
+                readColumnType(tableMetadata);
+            }
+        }
+
+        short columnsEnd = byteIndex;
+
+        // Reading the optional primary key column name
+        short primaryKey = -1;
+
+        if (byteIndex < readEnd) {
+            short keyOffset = nextBytesLpOffset(tableMetadata);
+            byteIndex = columnsOffset;
+
+            for (short i = 0; i < columnsCount; i++) {
+                short columnOffset = nextBytesLpOffset(tableMetadata);
+
+                if (Util.arrayCompare(tableMetadata, columnOffset, tableMetadata, keyOffset,
+                        (short) (tableMetadata[keyOffset] + 1)) == 0) {
+                    primaryKey = i;
+                }
+
+                if (typed) {
+                    readColumnType(tableMetadata);
+                }
+            }
+
+            if (primaryKey == -1) {
+                ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+            }
+        }
+
+        // The command is valid, so only now the name and the columns,
+        // which are kept by the table, are copied from the APDU buffer
+        byte[] tableName = new byte[nameLength];
+        Util.arrayCopy(tableMetadata, nameOffset, tableName, (short) 0, nameLength);
+
         // Creating new instance of table object and setting the metadata
-        Table table = new Table(tableName, (byte) columnsCount, columns);
+        Table table;
+
+        if (typed) {
+            byte[] columns = new byte[columnsLength];
+            byte[] columnTypes = new byte[columnsCount];
+            byte[] columnWidths = new byte[columnsCount];
+            short index = 0;
+
+            byteIndex = columnsOffset;
+
+            for (short i = 0; i < columnsCount; i++) {
+                short columnOffset = nextBytesLpOffset(tableMetadata);
+                short length = (short) (tableMetadata[columnOffset] + 1);
+                index = Util.arrayCopy(tableMetadata, columnOffset, columns, index, length);
+
+                columnTypes[i] = tableMetadata[byteIndex];
+                columnWidths[i] = readColumnType(tableMetadata);
+            }
+
+            table = new Table(tableName, (byte) columnsCount, columns, columnTypes, columnWidths, arenaSize, directory, capacity, rowBuffer);
+        } else {
+            // Copy columns
+            byte[] columns = new byte[columnsLength];
+            Util.arrayCopy(tableMetadata, columnsOffset, columns, (short) 0, columnsLength);
+
+            table = new Table(tableName, (byte) columnsCount, columns, null, null, arenaSize, directory, capacity, rowBuffer);
+        }
+
+        byteIndex = columnsEnd;
+
+        if (primaryKey != -1) {
+            table.setPrimaryKey(primaryKey);
+        }
+
         tables[tableCursor] = table;
  
         // Updating table cursor
         tableCursor++;
+
+        sendHandle(apdu, table);
+    }
+
+    /**
+     * Reads the column type of the column descriptor.
+     * @param source - array of bytes.
+     * @return Width of the fixed-width column. 0 - for the variable column.
+     */
+    private byte readColumnType(byte[] source) {
+
+        if (byteIndex >= readEnd) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+        }
+
+        byte type = source[byteIndex];
+        byteIndex++;
+
+        switch (type) {
+            case SCQL_ISO7816.TYPE_BYTES:
+                return 0;
+            case SCQL_ISO7816.TYPE_INT8:
+            case SCQL_ISO7816.TYPE_INT16:
+            case SCQL_ISO7816.TYPE_INT32:
+                return type;
+            case SCQL_ISO7816.TYPE_CHAR:
+                if (byteIndex >= readEnd) {
+                    ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+                }
+
+                byte width = source[byteIndex];
+                byteIndex++;
+
+                if (width < 1 || width > capacity.getMaxDataColumnLength()) {
+                    ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+                }
+
+                return width;
+            default:
+                ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+        }
+
+        return 0;
     }
 
     /**
@@ -82,310 +277,1182 @@ public class ScqlDatabase {
      */
     public void createView(APDU apdu) {
 
-        if (viewCursor >= SCQL_ISO7816.MAX_VIEWS) {
+        if (viewCursor >= (short) views.length) {
             ISOException.throwIt(SCQL_ISO7816.SW_FILE_FULL);
         }
 
         byte[] viewMetadata = startRead(apdu);
-        byteIndex = 0;
 
-        // Coping view name
-        byte[] viewName = readNextBytesLp(viewMetadata);
+        // Reading view name
+        short nameOffset = nextBytesLpOffset(viewMetadata);
+        short nameLength = viewMetadata[nameOffset];
+        nameOffset++;
 
         // Checking view name for uniqueness
-        if (DatabaseUtil.isObjExistsWithName(views, viewCursor, viewName)) {
+        if (DatabaseUtil.isObjExistsWithName(views, viewCursor, viewMetadata, nameOffset, nameLength)) {
             ISOException.throwIt(SCQL_ISO7816.SW_OBJECT_EXIST);
         }
 
         // Check view name with tables
-        if (DatabaseUtil.isObjExistsWithName(tables, tableCursor, viewName)) {
+        if (DatabaseUtil.isObjExistsWithName(tables, tableCursor, viewMetadata, nameOffset, nameLength)) {
             ISOException.throwIt(SCQL_ISO7816.SW_OBJECT_EXIST);
         }
 
-        // Coping the table name
-        byte[] tableName = readNextBytesLp(viewMetadata);
+        // Reading the table name or handle and checking if table exists
+        Table refferedTable = readTable(viewMetadata);
+
+        short viewColumnsCount = viewMetadata[byteIndex];
+        byteIndex++;
+
+        // Reading all columns as indexes
+        byte[] columnIndexes = selectColumnIndexes(viewMetadata, viewColumnsCount, refferedTable);
+
+        // Reading all filters (can be null)
+        Filter[] filters = readFilters(viewMetadata, refferedTable);
+
+        // Copying the view name, which is kept by the view
+        byte[] viewName = new byte[nameLength];
+        Util.arrayCopy(viewMetadata, nameOffset, viewName, (short) 0, nameLength);
+
+        View view = new View(refferedTable, viewName, columnIndexes, filters);
+        views[viewCursor] = view;
+        viewCursor++;
+
+        sendHandle(apdu, view);
+    }
+
+    /**
+     * Assigns the free handle to the new object and sends it in the response.
+     * @param apdu - instance to make APDU response
+     * @param obj - new table or view
+     */
+    private void sendHandle(APDU apdu, Performable obj) {
+        short slot = 0;
+
+        while (handles[slot] != null) {
+            slot++;
+        }
+
+        handles[slot] = obj;
+
+        byte[] buffer = apdu.getBuffer();
+
+        apdu.setOutgoing();
+        apdu.setOutgoingLength((short) 1);
+
+        buffer[0] = (byte) (SCQL_ISO7816.HANDLE_FLAG | (handleVersions[slot] << 4) | slot);
+
+        apdu.sendBytes((short) 0, (short) 1);
+    }
+
+    /**
+     * Releases the handle of the dropped object.
+     * @param obj - dropped table or view
+     */
+    private void releaseHandle(Performable obj) {
+        for (short i = 0; i < (short) handles.length; i++) {
+            if (handles[i] == obj) {
+                handles[i] = null;
+                handleVersions[i] = (byte) ((handleVersions[i] + 1) & 0x07);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the handle of the object, if it is sent instead of the name.
+     * @param data - array with the handle or the Lp block of the name.
+     * @return the table or the view. Null - if the name is sent.
+     */
+    private Performable readHandle(byte[] data) {
+
+        if (byteIndex >= readEnd) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+        }
+
+        byte handle = data[byteIndex];
+
+        if ((handle & SCQL_ISO7816.HANDLE_FLAG) == 0) {
+            return null;
+        }
+
+        byteIndex++;
+
+        short slot = (short) (handle & 0x0F);
 
-        // Checking if table exists
-        Table refferedTable = (Table) DatabaseUtil.getSearchableByName(tables, tableCursor, tableName);
-        
-        if (refferedTable == null) {
+        if (slot >= (short) handles.length || handles[slot] == null
+                || handleVersions[slot] != (byte) ((handle >> 4) & 0x07)) {
             ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
         }
 
-        short viewColumnsCount = viewMetadata[byteIndex];
+        return handles[slot];
+    }
+
+    /**
+     * Method declares the {@code Cursor} with the ID from P1 from the APDU command with specified columns and
+     * filters. The cursor with the same ID is declared again, its instance is reused.
+     * The filters can be followed by the order block: Lp orderColumnName (empty - no order),
+     * direction (0 - ascending, 1 - descending) and limit of the rows (0 - no limit).
+     * @param apdu - command with necessary cursor data
+     */
+    public void declareCursor(APDU apdu) {
+
+        short id = readCursorId(apdu);
+
+        byte[] data = startRead(apdu);
+
+        Performable obj = readPerformable(data);
+
+        short columnsCount = data[byteIndex];
+        byteIndex++;
+
+        // Reading all columns as indexes
+        byte[] columnIndexes = selectColumnIndexes(data, columnsCount, obj);
+
+        // Reading all filters (can be null)
+        Filter[] filters = readFilters(data, obj.getTable());
+
+        if (cursors[id] instanceof JoinCursor) {
+            // The join cursor is replaced by the cursor of the table or view
+            cursors[id].close();
+            cursors[id] = new Cursor(scratch, obj, columnIndexes, filters);
+            JCSystem.requestObjectDeletion();
+        } else if (cursors[id] == null) {
+            cursors[id] = new Cursor(scratch, obj, columnIndexes, filters);
+        } else {
+            cursors[id].declare(obj, columnIndexes, filters);
+        }
+
+        // Reading the order block (optional)
+        if (byteIndex < readEnd) {
+            readOrder(data, obj, cursors[id]);
+        }
+    }
+
+    /**
+     * Method declares the {@code JoinCursor} with the ID from P1, which joins the rows of two tables
+     * with the equal values in the join columns. The join columns should have the same type.
+     * APDU structure: Lp leftTableName, Lp leftColumnName, Lp rightTableName, Lp rightColumnName,
+     * N left columns (as in DECLARE CURSOR), N filters of the left table,
+     * N right columns, N filters of the right table (optional)
+     * @param apdu - command with necessary join cursor data
+     */
+    public void declareJoin(APDU apdu) {
+
+        short id = readCursorId(apdu);
+
+        byte[] data = startRead(apdu);
+
+        Table left = readTable(data);
+        short leftColumn = readColumn(data, left);
+        Table right = readTable(data);
+        short rightColumn = readColumn(data, right);
+
+        if (left.getColumnType(leftColumn) != right.getColumnType(rightColumn)) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+        }
+
+        byte[] leftColumnIndexes = selectColumnIndexes(data, readColumnsCount(data), left);
+        Filter[] leftFilters = readFilters(data, left);
+
+        byte[] rightColumnIndexes = selectColumnIndexes(data, readColumnsCount(data), right);
+        Filter[] rightFilters = readFilters(data, right);
+
+        if (cursors[id] instanceof JoinCursor) {
+            ((JoinCursor) cursors[id]).declare(left, leftColumn, leftColumnIndexes, leftFilters,
+                    right, rightColumn, rightColumnIndexes, rightFilters);
+        } else {
+            boolean replaced = cursors[id] != null;
+
+            if (replaced) {
+                cursors[id].close();
+            }
+
+            cursors[id] = new JoinCursor(scratch, left, leftColumn, leftColumnIndexes, leftFilters,
+                    right, rightColumn, rightColumnIndexes, rightFilters);
+
+            if (replaced) {
+                JCSystem.requestObjectDeletion();
+            }
+        }
+    }
+
+    private short readColumnsCount(byte[] data) {
+
+        if (byteIndex >= readEnd) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+        }
+
+        short columnsCount = data[byteIndex];
         byteIndex++;
 
-        // Reading all columns as indexes
-        byte[] columnIndexes = selectColumnIndexes(viewMetadata, viewColumnsCount, refferedTable);
+        return columnsCount;
+    }
+
+    /**
+     * Reads the order block of DECLARE CURSOR: Lp orderColumnName, direction, limit.
+     * @param data - array with the order block.
+     * @param obj - table or view of the cursor.
+     * @param cursor - declared cursor.
+     */
+    private void readOrder(byte[] data, Performable obj, Cursor cursor) {
+        short nameOffset = nextBytesLpOffset(data);
+
+        if ((short) (byteIndex + 2) > readEnd) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+        }
+
+        byte direction = data[byteIndex];
+        short limit = data[(short) (byteIndex + 1)];
+        byteIndex += 2;
+
+        if (direction != 0 && direction != 1 || limit < 0) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+        }
+
+        short columnIndex = -1;
+
+        if (data[nameOffset] != 0) {
+            columnIndex = obj.getColumnIndexByName(data, (short) (nameOffset + 1), data[nameOffset]);
+
+            if (columnIndex == -1) {
+                ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+            }
+
+            columnIndex = obj.getTableColumnIndex(columnIndex);
+        }
+
+        if (columnIndex != -1 || limit != 0) {
+            cursor.setOrder(columnIndex, direction == 1, limit);
+        }
+    }
+
+    /**
+     * Reads the cursor ID from P1 and maps it to the cursor of the logical channel of the command.
+     * @param apdu - cursor command.
+     * @return index of the cursor in the cursors array.
+     */
+    private short readCursorId(APDU apdu) {
+        byte id = apdu.getBuffer()[SCQL_ISO7816.OFFSET_P1];
+
+        if (id < 0 || id >= SCQL_ISO7816.MAX_CURSORS) {
+            ISOException.throwIt(SCQL_ISO7816.SW_INCORRECT_P1P2);
+        }
+
+        return (short) (getChannelCursors(APDU.getCLAChannel()) + id);
+    }
+
+    /**
+     * Gets the index of the first cursor of the logical channel.
+     * @param channel - logical channel.
+     * @return index of the first cursor of the channel in the cursors array.
+     */
+    private short getChannelCursors(byte channel) {
+
+        if (channel < 0 || channel >= SCQL_ISO7816.MAX_CHANNELS) {
+            ISOException.throwIt(SCQL_ISO7816.SW_LOGICAL_CHANNEL_NOT_SUPPORTED);
+        }
+
+        return (short) (channel * SCQL_ISO7816.MAX_CURSORS);
+    }
+
+    /**
+     * Closes all cursors of the logical channel, which is deselected.
+     * @param channel - deselected logical channel.
+     */
+    public void closeCursors(byte channel) {
+
+        if (channel < 0 || channel >= SCQL_ISO7816.MAX_CHANNELS) {
+            return;
+        }
+
+        short first = getChannelCursors(channel);
+
+        for (short i = first; i < (short) (first + SCQL_ISO7816.MAX_CURSORS); i++) {
+            if (cursors[i] != null) {
+                cursors[i].close();
+            }
+        }
+    }
+
+    /**
+     * Releases the scratch blocks of the previous command, which failed before releasing them.
+     * The blocks of the opened cursors stay acquired.
+     */
+    public void releaseScratch() {
+        scratch.releaseCommand();
+    }
+
+    /**
+     * Gets the declared cursor by the ID from P1.
+     * @param apdu - cursor command.
+     * @return declared cursor.
+     */
+    private Cursor getCursor(APDU apdu) {
+        Cursor cursor = cursors[readCursorId(apdu)];
+
+        // If cursor was not declared
+        if (cursor == null) {
+            ISOException.throwIt(SCQL_ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+        }
+
+        return cursor;
+    }
+
+    /**
+     * Removes the reference of the dropped object from the cursors, which use it.
+     * @param obj - dropped table or view.
+     */
+    private void removeCursorsReference(Performable obj) {
+        for (short i = 0; i < (short) cursors.length; i++) {
+            if (cursors[i] != null && cursors[i].isReferring(obj)) {
+                cursors[i].removeReference();
+            }
+        }
+    }
+
+    /**
+     * Reads the handle or the name of the table or the view.
+     * @param data - array with the handle or Lp block of the name.
+     * @return the table or the view.
+     */
+    private Performable readPerformable(byte[] data) {
+        Performable handleObj = readHandle(data);
+
+        if (handleObj != null) {
+            return handleObj;
+        }
+
+        short nameOffset = nextBytesLpOffset(data);
+        short nameLength = data[nameOffset];
+        nameOffset++;
+
+        // If the obj name is the table or view - process the command
+        // otherwise - throw an error
+        Performable obj = DatabaseUtil.getSearchableByName(tables, tableCursor, data, nameOffset, nameLength);
+
+        if (obj == null) {
+            obj = DatabaseUtil.getSearchableByName(views, viewCursor, data, nameOffset, nameLength);
+        }
+
+        if (obj == null) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+        }
+
+        return obj;
+    }
+
+    /**
+     * Opens the declared cursor to retrieve the data in select and initialize cursor on the first
+     * row.
+     * @param apdu - command with the cursor ID in P1
+     */
+    public void open(APDU apdu) {
+        getCursor(apdu).open();
+    }
+
+    /**
+     * Moves cursor to the next position
+     * @param apdu - command with the cursor ID in P1
+     */
+    public void next(APDU apdu) {
+        getCursor(apdu).next();
+    }
+
+    /**
+     * Fetches selected data from the cursor positioned on a row.
+     * @param apdu - instance to make APDU response
+     */
+    public void fetch(APDU apdu) {
+        fetch(apdu, getCursor(apdu));
+    }
+
+    /**
+     * Sends the selected data of the cursor row. The columns are written straight into the APDU buffer.
+     * The response overwrites P1, so the cursor is read before.
+     * @param apdu - instance to make APDU response
+     * @param cursor - cursor positioned on a row
+     */
+    private void fetch(APDU apdu, Cursor cursor) {
+
+        byte[] buffer = apdu.getBuffer();
+
+        short end = cursor.fetch(buffer, (short) 1, (short) buffer.length);
+
+        if (end == -1) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+        }
+
+        // inform system that the applet has finished
+        // processing the command and the system should
+        // now prepare to construct a response APDU
+        // which contains data field
+        apdu.setOutgoing();
+
+        // informs the CAD the actual number of bytes returned
+        apdu.setOutgoingLength(end);
+
+        buffer[0] = (byte) cursor.getColumnsCount();
+
+        apdu.sendBytes((short) 0, end);
+    }
+
+    /**
+     * Performs fetching the data and moving the cursor
+     * @param apdu
+     */
+    public void fetchNext(APDU apdu) {
+        Cursor cursor = getCursor(apdu);
+
+        fetch(apdu, cursor);
+        cursor.next();
+    }
+
+    /**
+     * Fetches as many consecutive rows from the cursor as fit into the response and moves the cursor
+     * behind the last fetched row. The response length is limited by Le and by the APDU buffer,
+     * which can hold an extended length response.
+     * Response structure: N rows, more rows flag (1 - cursor has more rows, 0 - otherwise),
+     * columns count and Lp blocks of the columns of each row.
+     * @param apdu - instance to make APDU response
+     */
+    public void fetchRows(APDU apdu) {
+
+        Cursor cursor = getCursor(apdu);
+
+        byte[] buffer = apdu.getBuffer();
+
+        short limit = apdu.setOutgoing();
+        if (limit > (short) buffer.length || limit <= 0) {
+            limit = (short) buffer.length;
+        }
+
+        short offset = 3;
+        short rowsCount = 0;
+
+        do {
+            // The row is written straight into the response, the row, which doesn't fit, is not sent
+            short end = cursor.fetch(buffer, offset, limit);
+
+            if (end == -1) {
+                // Not even one row fits into the response
+                if (rowsCount == 0) {
+                    ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+                }
+                break;
+            }
+
+            offset = end;
+            rowsCount++;
+
+            cursor.next();
+        } while (!cursor.isEndOfTable());
+
+        buffer[0] = (byte) rowsCount;
+        buffer[1] = cursor.isEndOfTable() ? (byte) 0 : (byte) 1;
+        buffer[2] = (byte) cursor.getColumnsCount();
+
+        apdu.setOutgoingLength(offset);
+        apdu.sendBytes((short) 0, offset);
+    }
+
+    /**
+     * The method creates new {@code Data} instances from APDU command and stores
+     * it in the {@code Table} instance.
+     * @param apdu - command with insert data.
+     */
+    public void insertInto(APDU apdu) {
+
+        byte[] data = startRead(apdu);
+
+        // Getting table instance by the handle or the name
+        Table table = readTable(data);
+
+        // Getting the amount of columns and checking
+        // it with the table's columns amount
+        if (byteIndex >= readEnd) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+        }
+
+        short nData = data[byteIndex];
+        byteIndex++;
+
+        if (nData != table.getColumnsN()) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+        }
+
+        short dataOffset = byteIndex;
+
+        // Reading Lp of data block and checking the length of it
+        byteIndex = table.checkRow(data, dataOffset, readEnd);
+
+        // Adding new data row to the table
+        addRow(table, data, dataOffset, (short) (byteIndex - dataOffset));
+    }
+
+    /**
+     * The method inserts many rows into the table at once. The rows can be sent in one extended length
+     * command or in the chain of commands (CLA bit 0x10), the first command of the chain starts with
+     * the table name and the amount of rows.
+     * The chain belongs to the channel of its first command. While the chain is not finished,
+     * the bulk insert on another channel is rejected.
+     * APDU structure: Lp tableName N rows, then N rows each with Lr and Lp blocks of the columns.
+     * @param apdu - command with insert data.
+     */
+    public void insertRows(APDU apdu) {
+
+        byte[] buffer = apdu.getBuffer();
+        byte channel = APDU.getCLAChannel();
+
+        // The chain of another channel is kept
+        if (bulkTable[0] != null && bulkState[BULK_CHANNEL] != channel) {
+            ISOException.throwIt(SCQL_ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+        }
+
+        short bytesRead = apdu.setIncomingAndReceive();
+        short dataOffset = apdu.getOffsetCdata();
+
+        try {
+            short offset = dataOffset;
+
+            // The first command of the bulk insert
+            if (bulkTable[0] == null) {
+                byteIndex = dataOffset;
+                readEnd = (short) (dataOffset + bytesRead);
+
+                // Reading the table handle or name
+                Table table = readTable(buffer);
+
+                if (byteIndex >= readEnd) {
+                    ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+                }
+
+                short rowsCount = (short) (buffer[byteIndex] & 0xFF);
+                byteIndex++;
+
+                // All the rows should fit into the table
+                if (rowsCount > table.getFreeRows()) {
+                    ISOException.throwIt(SCQL_ISO7816.SW_FILE_FULL);
+                }
+
+                bulkTable[0] = table;
+                bulkState[BULK_ROWS_REMAINING] = rowsCount;
+                bulkState[BULK_ROW_FILL] = 0;
+                bulkState[BULK_CHANNEL] = channel;
+
+                offset = byteIndex;
+            }
+
+            // Appending rows from all the received blocks of the command
+            while (bytesRead > 0) {
+                appendRows(buffer, offset, (short) (dataOffset + bytesRead));
+
+                bytesRead = apdu.receiveBytes(dataOffset);
+                offset = dataOffset;
+            }
+
+            // The last command of the chain
+            if (!apdu.isCommandChainingCLA()) {
+                if (bulkState[BULK_ROWS_REMAINING] != 0 || bulkState[BULK_ROW_FILL] != 0) {
+                    ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+                }
+
+                cancelInsertRows(channel);
+            }
+        } catch (ISOException e) {
+            cancelInsertRows(channel);
+            ISOException.throwIt(e.getReason());
+        }
+    }
+
+    /**
+     * Cancels the bulk insert of the channel, which waits for the next command of the chain.
+     * The rows, which were already inserted, are kept.
+     * @param channel - logical channel of the command.
+     */
+    public void cancelInsertRows(byte channel) {
+        if (bulkTable[0] != null && bulkState[BULK_CHANNEL] == channel) {
+            bulkTable[0] = null;
+            bulkState[BULK_ROWS_REMAINING] = 0;
+            bulkState[BULK_ROW_FILL] = 0;
+        }
+    }
+
+    /**
+     * Appends the rows from the block of the bulk insert command. The row, which is split between
+     * the blocks, is collected in the transient row buffer, other rows are added directly from
+     * the APDU buffer.
+     * @param buffer - APDU buffer
+     * @param offset - offset of the rows in the buffer
+     * @param end - end of the received block in the buffer
+     */
+    private void appendRows(byte[] buffer, short offset, short end) {
+
+        Table table = (Table) bulkTable[0];
+        short rowFill = bulkState[BULK_ROW_FILL];
+
+        while (offset < end) {
+
+            if (bulkState[BULK_ROWS_REMAINING] == 0) {
+                ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+            }
+
+            short rowLength;
+
+            if (rowFill == 0) {
+                rowLength = (short) (buffer[offset] & 0xFF);
+
+                if (rowLength >= (short) bulkRow.length) {
+                    ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+                }
+
+                // The whole row is in the buffer
+                if ((short) (offset + rowLength) < end) {
+                    offset++;
+
+                    // The columns should fill the whole row
+                    if (table.checkRow(buffer, offset, (short) (offset + rowLength)) != (short) (offset + rowLength)) {
+                        ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+                    }
+
+                    addRow(table, buffer, offset, rowLength);
+
+                    offset += rowLength;
+                    bulkState[BULK_ROWS_REMAINING]--;
+                    continue;
+                }
+            } else {
+                rowLength = (short) (bulkRow[0] & 0xFF);
+            }
+
+            // Collecting the part of the row
+            short length = (short) (rowLength + 1 - rowFill);
+
+            if (length > (short) (end - offset)) {
+                length = (short) (end - offset);
+            }
+
+            Util.arrayCopyNonAtomic(buffer, offset, bulkRow, rowFill, length);
+            offset += length;
+            rowFill += length;
+
+            if (rowFill == (short) (rowLength + 1)) {
+                if (table.checkRow(bulkRow, (short) 1, rowFill) != rowFill) {
+                    ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+                }
+
+                addRow(table, bulkRow, (short) 1, rowLength);
+
+                rowFill = 0;
+                bulkState[BULK_ROWS_REMAINING]--;
+            }
+        }
+
+        bulkState[BULK_ROW_FILL] = rowFill;
+    }
+
+    /**
+     * Adds the validated row to the table. The duplicate key is rejected by the table
+     * before the row is stored.
+     * @param table - table to insert the row
+     * @param source - array with the row
+     * @param offset - offset of the row
+     * @param length - length of the row
+     */
+    private void addRow(Table table, byte[] source, short offset, short length) {
+        table.insertRow(source, offset, (short) (offset + length));
+    }
+
+    /**
+     * Method drops existing table and data inside of it. Additionally, method
+     * assigning null references to all views and cursor, where the table was used
+     * @param apdu - command with table name to drop.
+     */
+    public void dropTable(APDU apdu) {
+
+        byte[] data = startRead(apdu);
+
+        short index = -1;
+        Performable handleObj = readHandle(data);
+
+        if (handleObj == null) {
+            // Reading the table name
+            short nameOffset = nextBytesLpOffset(data);
+            index = DatabaseUtil.getTableIndexByName(tables, tableCursor, data, (short) (nameOffset + 1), data[nameOffset]);
+        } else {
+            index = getIndex(tables, tableCursor, handleObj);
+        }
+
+        if (index == -1) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+        }
+
+        Table tableToDrop = tables[index];
+
+        tableToDrop.drop();
+        releaseHandle(tableToDrop);
+
+        // Each view with referred table should delete the reference
+        for (short i = 0; i < viewCursor; i++) {
+            View view = views[i];
+
+            if (view.getTable().equals(tableToDrop)) {
+                view.removeTable();
+            }
+        }
+
+        // Removing reference of table from cursors if available
+        removeCursorsReference(tableToDrop);
+
+        tables[index] = null;
+        tableCursor--;
+
+        // Rearranging instances
+        for (short i = index; i < tableCursor; i++) {
+            tables[i] = tables[(short) (i + 1)];
+        }
+        tables[tableCursor] = null;
+
+        // Requesting deletion mechanism
+        JCSystem.requestObjectDeletion();
+    }
+
+    /**
+     * Method deletes instance of view by name. Additionally, method assigns null
+     * reference to the {@code Cursor} if view used there.
+     * @param apdu - command with view name to drop.
+     */
+    public void dropView(APDU apdu) {
+
+        byte[] data = startRead(apdu);
+
+        short index = -1;
+        Performable handleObj = readHandle(data);
+
+        if (handleObj == null) {
+            // Reading the view name
+            short nameOffset = nextBytesLpOffset(data);
+            index = DatabaseUtil.getViewIndexByName(views, viewCursor, data, (short) (nameOffset + 1), data[nameOffset]);
+        } else {
+            index = getIndex(views, viewCursor, handleObj);
+        }
+
+        if (index == -1) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+        }
+
+        View viewToDrop = views[index];
+
+        viewToDrop.drop();
+        releaseHandle(viewToDrop);
+
+        // Removing reference of view from cursors if available
+        removeCursorsReference(viewToDrop);
+
+        views[index] = null;
+        viewCursor--;
+
+        // Rearranging instances
+        for (short i = index; i < viewCursor; i++) {
+            views[i] = views[(short) (i + 1)];
+        }
+        views[viewCursor] = null;
+
+        // Requesting deletion mechanism
+        JCSystem.requestObjectDeletion();
+    }
+
+    /**
+     * Method creates the sorted index on the table column. The index is used by the cursors
+     * and filters with =, <, >, <=, >= operands on the column.
+     * APDU structure: Lp tableName Lp columnName
+     * @param apdu - command with table and column names.
+     */
+    public void createIndex(APDU apdu) {
+        byte[] data = startRead(apdu);
+
+        Table table = readTable(data);
+        short columnIndex = readIndexColumn(data, table);
+
+        table.createIndex(columnIndex);
+    }
+
+    /**
+     * Method drops the index on the table column.
+     * APDU structure: Lp tableName Lp columnName
+     * @param apdu - command with table and column names.
+     */
+    public void dropIndex(APDU apdu) {
+        byte[] data = startRead(apdu);
+
+        Table table = readTable(data);
+        short columnIndex = readIndexColumn(data, table);
 
-        // Reading all filters (can be null)
-        Filter[] filters = readFilters(viewMetadata);
+        table.dropIndex(columnIndex);
 
-        View view = new View(refferedTable, viewName, columnIndexes, filters);
-        views[viewCursor] = view;
-        viewCursor++;
+        // Requesting deletion mechanism
+        JCSystem.requestObjectDeletion();
     }
 
     /**
-     * Method creates new instance of {@code Cursor} from the APDU command with specified columns and
-     * filters.
-     * @param apdu - command with necessary cursor data
+     * Method defragments the row arena of the table, so the free space of the deleted rows
+     * is joined into one block.
+     * APDU structure: Lp tableName
+     * @param apdu - command with table name.
      */
-    public void declareCursor(APDU apdu) {
-
+    public void compact(APDU apdu) {
         byte[] data = startRead(apdu);
 
-        // Coping the table name
-        byte[] objName = readNextBytesLp(data);
+        readTable(data).compact();
+    }
+
+    /**
+     * Reads the handle or the name of the table.
+     * @param data - array with the handle or Lp block of the name.
+     * @return the table.
+     */
+    private Table readTable(byte[] data) {
+        Performable handleObj = readHandle(data);
 
-        Performable obj = null;
+        if (handleObj != null) {
+            // The handle of the view is not accepted instead of the table
+            if (!(handleObj instanceof Table)) {
+                ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+            }
 
-        // If the obj name is the table or view - process the command
-        // otherwise - throw an error
-        if (DatabaseUtil.isObjExistsWithName(tables, tableCursor, objName)) {
-            obj = DatabaseUtil.getSearchableByName(tables, tableCursor, objName);
-        } else if (DatabaseUtil.isObjExistsWithName(views, viewCursor, objName)) {
-            obj = DatabaseUtil.getSearchableByName(views, viewCursor, objName);
-        } else {
-            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+            return (Table) handleObj;
         }
 
-        short columnsCount = data[byteIndex];
-        byteIndex++;
-
-        // Reading all columns as indexes
-        byte[] columnIndexes = selectColumnIndexes(data, columnsCount, obj);
+        // Reading the table name
+        short nameOffset = nextBytesLpOffset(data);
+        Table table = DatabaseUtil.getTableByName(tables, tableCursor, data, (short) (nameOffset + 1), data[nameOffset]);
 
-        // Reading all filters (can be null)
-        Filter[] filters = readFilters(data);
+        if (table == null) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+        }
 
-        cursor = new Cursor(obj, columnIndexes, filters);
+        return table;
     }
 
     /**
-     * Opens the declared cursor to retrieve the data in select and initialize cursor on the first
-     * row.
+     * Finds the array index of the object, which was referenced by the handle.
+     * @param objects - tables or views.
+     * @param count - amount of the objects in the array.
+     * @param obj - the object to find.
+     * @return array index of the object. -1 - if the object is not in the array.
      */
-    public void open() {
-        // If cursor was not declared
-        if (cursor == null) {
-            ISOException.throwIt(SCQL_ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+    private short getIndex(Performable[] objects, short count, Performable obj) {
+        for (short i = 0; i < count; i++) {
+            if (objects[i] == obj) {
+                return i;
+            }
         }
 
-        cursor.open();
+        return -1;
     }
 
-    /**
-     * Moves cursor to the next position
-     */
-    public void next() {
-        // If cursor was not declared
-        if (cursor == null) {
-            ISOException.throwIt(SCQL_ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+    private short readIndexColumn(byte[] data, Table table) {
+        // Reading the column name
+        short nameOffset = nextBytesLpOffset(data);
+        short columnIndex = table.getColumnIndexByName(data, (short) (nameOffset + 1), data[nameOffset]);
+
+        if (columnIndex == -1) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
         }
 
-        cursor.next();
+        return columnIndex;
     }
 
     /**
-     * Fetches selected data from the cursor positioned on a row.
-     * @param apdu - instance to make APDU response
+     * Updates the columns of the row, to which cursor is pointing. All the values are checked
+     * before the row is changed.
+     * APDU structure: N, N pairs of Lp columnName Lp value
+     * @param apdu - command with the column names and the new values.
      */
-    public void fetch(APDU apdu) {
+    public void update(APDU apdu) {
+        Cursor cursor = getCursor(apdu);
 
-        // If cursor was not declared
-        if (cursor == null) {
+        // If cursor was not opened
+        if (!cursor.isOpened()) {
             ISOException.throwIt(SCQL_ISO7816.SW_CONDITIONS_NOT_SATISFIED);
         }
 
-        byte[] buffer = apdu.getBuffer();
+        byte[] data = startRead(apdu);
 
-        byte[] selectedData = cursor.fetch();
-        short columns = cursor.getColumnsCount();
+        if (byteIndex >= readEnd) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+        }
 
-        // inform system that the applet has finished
-        // processing the command and the system should
-        // now prepare to construct a response APDU
-        // which contains data field
-        apdu.setOutgoing();
+        short columnsCount = data[byteIndex];
+        byteIndex++;
 
-        // informs the CAD the actual number of bytes returned
-        apdu.setOutgoingLength((short) (selectedData.length + 1));
+        if (columnsCount < 1 || columnsCount > capacity.getMaxColumns()) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+        }
+
+        short columnsOffset = byteIndex;
+
+        for (short i = 0; i < columnsCount; i++) {
+            short nameOffset = nextBytesLpOffset(data);
+            short valueOffset = nextBytesLpOffset(data);
+
+            short columnIndex = cursor.getColumnIndexByName(data, (short) (nameOffset + 1), data[nameOffset]);
+            cursor.checkUpdate(columnIndex, data, (short) (valueOffset + 1), data[valueOffset]);
+        }
 
-        buffer[0] = (byte) columns;
+        byteIndex = columnsOffset;
 
-        // Prepare response in buffer
-        Util.arrayCopy(selectedData, (short) 0, buffer, (short) 1, (short) selectedData.length);
+        for (short i = 0; i < columnsCount; i++) {
+            short nameOffset = nextBytesLpOffset(data);
+            short valueOffset = nextBytesLpOffset(data);
 
-        apdu.sendBytes((short) 0, (short) (selectedData.length + 1));
+            short columnIndex = cursor.getColumnIndexByName(data, (short) (nameOffset + 1), data[nameOffset]);
+            cursor.update(columnIndex, data, (short) (valueOffset + 1), data[valueOffset]);
+        }
     }
 
     /**
-     * Performs fetching the data and moving the cursor
-     * @param apdu
+     * Deletes all the rows of the table, which apply the filters, in one command. The tombstones
+     * of the deleted rows are compacted at once, if they pass the threshold.
+     * Every row is deleted in its own transaction, as all the rows can exceed the commit buffer. If the command
+     * is interrupted, the rows deleted before stay deleted, and the repeated command deletes the rest of them.
+     * The whole command is atomic only inside the transaction begun by the transaction command.
+     * APDU structure: Lp tableName, N filters (as in DECLARE CURSOR)
+     * Response: 2 bytes count of the deleted rows.
+     * @param apdu - command with the table name and the filters.
      */
-    public void fetchNext(APDU apdu) {
-        fetch(apdu);
-        next();
+    public void deleteWhere(APDU apdu) {
+        byte[] data = startRead(apdu);
+
+        Performable obj = readPerformable(data);
+        short[] rows = scratch.getRows();
+        short first = scratch.acquireCommand();
+        short end = (short) (first + obj.filter(readWhereFilters(data, obj.getTable()), rows, first));
+
+        for (short i = first; i < end; i++) {
+            obj.delete(rows[i]);
+        }
+
+        scratch.release(first);
+        obj.getTable().compactTombstones();
+
+        short count = (short) (end - first);
+
+        sendCount(apdu, count);
     }
 
     /**
-     * The method creates new {@code Data} instances from APDU command and stores
-     * it in the {@code Table} instance.
-     * @param apdu - command with insert data.
+     * Updates the columns of all the rows of the table or view, which apply the filters, in one command.
+     * The rows are selected before any row is changed, and all the values are checked for all the rows,
+     * so the invalid value doesn't change any row. Every column of the row is updated in its own transaction,
+     * as all the rows can exceed the commit buffer. If the command fails later, e.g. the arena is full for
+     * the longer row or the card is torn, the values written before stay written and the count is not sent.
+     * The whole command is atomic only inside the transaction begun by the transaction command.
+     * APDU structure: Lp tableName, N, N pairs of Lp columnName Lp value, N filters (as in DECLARE CURSOR)
+     * Response: 2 bytes count of the updated rows.
+     * @param apdu - command with the table name, the new values and the filters.
      */
-    public void insertInto(APDU apdu) {
+    public void updateWhere(APDU apdu) {
+        byte[] data = startRead(apdu);
 
-        byte[] buffer = apdu.getBuffer();
+        Performable obj = readPerformable(data);
 
-        byte[] data = startRead(apdu);
-        byte lc = buffer[SCQL_ISO7816.OFFSET_LC];
+        if (byteIndex >= readEnd) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+        }
+
+        short columnsCount = data[byteIndex];
+        byteIndex++;
 
-        // Coping the table name
-        byte[] tableName = readNextBytesLp(data);
+        if (columnsCount < 1 || columnsCount > capacity.getMaxColumns()) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+        }
 
-        // Getting table instance
-        Table table = DatabaseUtil.getTableByName(tables, tableCursor, tableName);
+        short columnsOffset = byteIndex;
 
-        // Throwing the error if the table wasn't found
-        if (table == null) {
-            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+        for (short i = 0; i < columnsCount; i++) {
+            nextBytesLpOffset(data);
+            nextBytesLpOffset(data);
         }
 
-        // Getting the amount of columns and checking
-        // it with the table's columns amount
-        short nData = data[byteIndex];
-        byteIndex++;
+        short[] rows = scratch.getRows();
+        short first = scratch.acquireCommand();
+        short count = obj.filter(readWhereFilters(data, obj.getTable()), rows, first);
+        short end = (short) (first + count);
+        Index key = obj.getTable().getPrimaryKey();
 
-        if (nData != table.getColumnsN()) {
-            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+        byteIndex = columnsOffset;
+
+        for (short i = 0; i < columnsCount; i++) {
+            short columnIndex = readColumn(data, obj);
+            short valueOffset = nextBytesLpOffset(data);
+
+            // The same key can't be set to several rows
+            if (count > 1 && key != null && key.getColumnIndex() == obj.getTableColumnIndex(columnIndex)) {
+                ISOException.throwIt(SCQL_ISO7816.SW_OBJECT_EXIST);
+            }
+
+            for (short j = first; j < end; j++) {
+                obj.checkUpdate(rows[j], columnIndex, data, (short) (valueOffset + 1), data[valueOffset]);
+            }
         }
 
-        // Copying entire data chunk
-        byte[] columns = new byte[(short) (lc - byteIndex)];
-        Util.arrayCopy(data, byteIndex, columns, (short) 0, (short) (lc - byteIndex));
+        for (short j = first; j < end; j++) {
+            byteIndex = columnsOffset;
 
-        // Reading Lp of data block and checking the length of it
-        for (short i = 0; i < nData; i++) {
-            byte dataLp = data[byteIndex];
-            byteIndex += (short) (dataLp + 1);
+            for (short i = 0; i < columnsCount; i++) {
+                short columnIndex = readColumn(data, obj);
+                short valueOffset = nextBytesLpOffset(data);
 
-            if (dataLp > SCQL_ISO7816.MAX_DATA_COLUMN_LENGTH) {
-                ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+                obj.update(rows[j], columnIndex, data, (short) (valueOffset + 1), data[valueOffset]);
             }
         }
 
-        // Adding new data row to the table
-        table.addData(new Data(columns));
+        scratch.release(first);
+
+        sendCount(apdu, count);
     }
 
     /**
-     * Method drops existing table and data inside of it. Additionally, method
-     * assigning null references to all views and cursor, where the table was used
-     * @param apdu - command with table name to drop.
+     * Reads the column name and finds the column.
+     * @param data - array with the Lp block of the column name.
+     * @param obj - table or view of the column.
+     * @return index of the column in the table or view.
      */
-    public void dropTable(APDU apdu) {
-    	
-    	short memoryConsumption = JCSystem.getAvailableMemory(JCSystem.MEMORY_TYPE_PERSISTENT);
+    private short readColumn(byte[] data, Performable obj) {
+        short nameOffset = nextBytesLpOffset(data);
+        short columnIndex = obj.getColumnIndexByName(data, (short) (nameOffset + 1), data[nameOffset]);
+
+        if (columnIndex == -1) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+        }
+
+        return columnIndex;
+    }
 
+    /**
+     * Computes the aggregate function over the rows of the table or view, which apply the filters.
+     * The rows are scanned in place, neither the rows nor the values are copied.
+     * APDU structure: Lp tableName, function, Lp columnName (empty for COUNT), N filters (as in DECLARE CURSOR)
+     * Response: COUNT - 2 bytes count, SUM - 4 bytes signed sum of the integer column,
+     * MIN and MAX - Lp block of the value. MIN and MAX of no rows return {@code SW_END_OF_TABLE}.
+     * @param apdu - command with the table name, the function, the column and the filters.
+     */
+    public void aggregate(APDU apdu) {
         byte[] data = startRead(apdu);
-        // Coping the table name
-        byte[] tableName = readNextBytesLp(data);
 
-        short index = DatabaseUtil.getTableIndexByName(tables, tableCursor, tableName);
+        Performable obj = readPerformable(data);
 
-        if (index == -1) {
-            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+        if (byteIndex >= readEnd) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
         }
 
-        Table tableToDrop = tables[index];
+        byte function = data[byteIndex];
+        byteIndex++;
 
-        tableToDrop.drop();
+        short nameOffset = nextBytesLpOffset(data);
+        short columnIndex = -1;
 
-        // Each view with referred table should delete the reference
-        for (short i = 0; i < viewCursor; i++) {
-            View view = views[i];
+        if (data[nameOffset] != 0) {
+            columnIndex = obj.getColumnIndexByName(data, (short) (nameOffset + 1), data[nameOffset]);
 
-            if (view.getTable().equals(tableToDrop)) {
-                view.removeTable();
+            if (columnIndex == -1) {
+                ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
             }
-        }
 
-        // Removing reference of table from cursor if available
-        if (cursor != null && cursor.getObj() != null && cursor.getObj() instanceof Table) {
-            Table cursorTable = (Table) cursor.getObj();
-            if (cursorTable.equals(tableToDrop)) {
-                cursor.removeReference();
-            }
+            columnIndex = obj.getTableColumnIndex(columnIndex);
+        } else if (function != SCQL_ISO7816.AGGREGATE_COUNT) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
         }
 
-        tables[index] = null;
-        tableCursor--;
+        Table table = obj.getTable();
+        Filter[] filters = readWhereFilters(data, table);
 
-        // Rearranging instances
-        for (short i = index; i < tableCursor; i++) {
-            tables[i] = tables[(short) (i + 1)];
+        if (function == SCQL_ISO7816.AGGREGATE_SUM) {
+            byte type = table.getColumnType(columnIndex);
+
+            if (type != SCQL_ISO7816.TYPE_INT8 && type != SCQL_ISO7816.TYPE_INT16 && type != SCQL_ISO7816.TYPE_INT32) {
+                ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+            }
+        } else if (function != SCQL_ISO7816.AGGREGATE_COUNT && function != SCQL_ISO7816.AGGREGATE_MIN
+                && function != SCQL_ISO7816.AGGREGATE_MAX) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
         }
-        tables[tableCursor] = null;
 
-        // Requesting deletion mechanism
-        JCSystem.requestObjectDeletion();
-    }
+        // The header of the command is not needed anymore, so the sum is counted in place of the header.
+        // The filter values follow the header in the buffer.
+        Util.arrayFillNonAtomic(data, (short) 0, (short) 4, (byte) 0);
 
-    /**
-     * Method deletes instance of view by name. Additionally, method assigns null
-     * reference to the {@code Cursor} if view used there.
-     * @param apdu - command with view name to drop.
-     */
-    public void dropView(APDU apdu) {
+        short count = 0;
+        short best = -1;
 
-        short memoryConsumption = JCSystem.getAvailableMemory(JCSystem.MEMORY_TYPE_PERSISTENT);
+        obj.initScan(aggregateScan, filters);
 
-        byte[] data = startRead(apdu);
+        for (short i = obj.seek(aggregateScan, filters); i != -1; i = obj.seek(aggregateScan, filters)) {
+            count++;
 
-        // Coping the view name
-        byte[] viewName = readNextBytesLp(data);
-        short index = DatabaseUtil.getViewIndexByName(views, viewCursor, viewName);
+            if (function == SCQL_ISO7816.AGGREGATE_SUM) {
+                byte[] row = table.getRowData(i);
+                short valueOffset = table.getColumnOffset(row, table.getRowOffset(i), columnIndex);
 
-        if (index == -1) {
-            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+                if (!DatabaseUtil.addSigned(data, (short) 0, row, valueOffset, table.getColumnLength(row, valueOffset, columnIndex))) {
+                    ISOException.throwIt(SCQL_ISO7816.SW_DATA_INVALID);
+                }
+            } else if (function == SCQL_ISO7816.AGGREGATE_MIN) {
+                if (best == -1 || table.compareRows(i, best, columnIndex) < 0) {
+                    best = i;
+                }
+            } else if (function == SCQL_ISO7816.AGGREGATE_MAX) {
+                if (best == -1 || table.compareRows(i, best, columnIndex) > 0) {
+                    best = i;
+                }
+            }
+
+            aggregateScan.next();
         }
 
-        View viewToDrop = views[index];
+        if (function == SCQL_ISO7816.AGGREGATE_COUNT) {
+            sendCount(apdu, count);
+        } else if (function == SCQL_ISO7816.AGGREGATE_SUM) {
+            apdu.setOutgoing();
+            apdu.setOutgoingLength((short) 4);
+            apdu.sendBytes((short) 0, (short) 4);
+        } else {
+            if (best == -1) {
+                ISOException.throwIt(SCQL_ISO7816.SW_END_OF_TABLE);
+            }
 
-        viewToDrop.drop();
+            byte[] row = table.getRowData(best);
+            short valueOffset = table.getColumnOffset(row, table.getRowOffset(best), columnIndex);
+            short length = table.getColumnLength(row, valueOffset, columnIndex);
 
-        // Removing reference of view from cursor if available
-        if (cursor != null && cursor.getObj() != null && cursor.getObj() instanceof View) {
-            View cursorView = (View) cursor.getObj();
-            if (cursorView.equals(viewToDrop)) {
-                cursor.removeReference();
-            }
-        }
+            apdu.setOutgoing();
+            apdu.setOutgoingLength((short) (length + 1));
 
-        views[index] = null;
-        viewCursor--;
+            data[0] = (byte) length;
+            Util.arrayCopyNonAtomic(row, valueOffset, data, (short) 1, length);
 
-        // Rearranging instances
-        for (short i = index; i < viewCursor; i++) {
-            views[i] = views[(short) (i + 1)];
+            apdu.sendBytes((short) 0, (short) (length + 1));
         }
-        views[viewCursor] = null;
+    }
 
-        // Requesting deletion mechanism
-        JCSystem.requestObjectDeletion();
+    private void sendCount(APDU apdu, short count) {
+        byte[] buffer = apdu.getBuffer();
+
+        apdu.setOutgoing();
+        apdu.setOutgoingLength((short) 2);
+
+        Util.setShort(buffer, (short) 0, count);
+
+        apdu.sendBytes((short) 0, (short) 2);
     }
 
     /**
      * Deletes the row in the table, to which cursor is pointing
+     * @param apdu - command with the cursor ID in P1
      */
-    public void delete() {
-        // If cursor was not declared
-        if (cursor == null) {
-            ISOException.throwIt(SCQL_ISO7816.SW_CONDITIONS_NOT_SATISFIED);
-        }
-
-        cursor.delete();
+    public void delete(APDU apdu) {
+        getCursor(apdu).delete();
     }
 
     /**
@@ -409,9 +1476,9 @@ public class ScqlDatabase {
             for (short i = 0; i < columnsCount; i++) {
 
                 // Getting column name
-                byte[] columnName = readNextBytesLp(source);
+                short nameOffset = nextBytesLpOffset(source);
 
-                byte columnIndex = (byte) referredObj.getColumnIndexByName(columnName);
+                byte columnIndex = (byte) referredObj.getColumnIndexByName(source, (short) (nameOffset + 1), source[nameOffset]);
 
                 // Checking if the column exists in the table.
                 // If the column exists adding the index of the table's column to the array
@@ -436,17 +1503,15 @@ public class ScqlDatabase {
     /**
      * The method is used to read filters block of APDU command.
      * APDU filter structure: N columnName operand value
+     * Column names are resolved to the column indexes of the table once, while reading.
+     * The values are copied, as the filters are kept by the cursor.
      * @param buffer - buffer with filters
+     * @param table - table, to which the filters are applied
      * @return Array of {@code Filter} instances. Null - if buffer don't have filters block
      */
-    private Filter[] readFilters(byte[] buffer) {
-    	
-    	if (buffer.length <= byteIndex) {
-    		return null;
-    	}
-    	
-        short filtersCount = buffer[byteIndex];
-        byteIndex++;
+    private Filter[] readFilters(byte[] buffer, Table table) {
+
+        short filtersCount = readFiltersCount(buffer, table);
 
         if (filtersCount == 0) {
             return null;
@@ -454,60 +1519,168 @@ public class ScqlDatabase {
 
         Filter[] filters = new Filter[filtersCount];
 
-        // Lp columnName Lp operator Lp value
         for (short i = 0; i < filtersCount; i++) {
-            byte[] column = readNextBytesLp(buffer);
+            filters[i] = new Filter();
+            short valueOffset = readFilter(buffer, table, filters[i]);
+
+            byte[] value = new byte[buffer[valueOffset]];
+            Util.arrayCopy(buffer, (short) (valueOffset + 1), value, (short) 0, (short) value.length);
+            filters[i].setValue(value);
+        }
+
+        return filters;
+    }
+
+    /**
+     * Reads the filters block of the set command into the reused filters. The values are copied
+     * into the transient array of the where values, so the filters are valid only during the command.
+     * @param buffer - buffer with filters
+     * @param table - table, to which the filters are applied
+     * @return Array of {@code Filter} instances. Null - if buffer don't have filters block
+     */
+    private Filter[] readWhereFilters(byte[] buffer, Table table) {
+
+        short filtersCount = readFiltersCount(buffer, table);
+
+        if (filtersCount == 0) {
+            return null;
+        }
+
+        if (filtersCount > SCQL_ISO7816.MAX_FILTERS) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+        }
+
+        // The filters array is allocated once for every count of the filters
+        Filter[] filters = (Filter[]) whereFilters[(short) (filtersCount - 1)];
+
+        if (filters == null) {
+            filters = new Filter[filtersCount];
+
+            for (short i = 0; i < filtersCount; i++) {
+                filters[i] = new Filter();
+            }
+
+            whereFilters[(short) (filtersCount - 1)] = filters;
+        }
+
+        short valuesOffset = 0;
 
-            byteIndex++;
-            byte operator = buffer[byteIndex];
-            byteIndex++;
+        for (short i = 0; i < filtersCount; i++) {
+            short valueOffset = readFilter(buffer, table, filters[i]);
+            short valueLength = buffer[valueOffset];
 
-            byte[] value = readNextBytesLp(buffer);
+            // The stored values are not longer than the maximal length, so the longer value is compared
+            // by its first bytes and by the length, which the truncated value keeps
+            if (valueLength > (short) (capacity.getMaxDataColumnLength() + 1)) {
+                valueLength = (short) (capacity.getMaxDataColumnLength() + 1);
+            }
 
-            filters[i] = new Filter(column, operator, value);
+            Util.arrayCopyNonAtomic(buffer, (short) (valueOffset + 1), whereValues, valuesOffset, valueLength);
+            filters[i].setValue(whereValues, valuesOffset, valueLength);
+            valuesOffset += valueLength;
         }
 
         return filters;
     }
 
+    private short readFiltersCount(byte[] buffer, Table table) {
+
+        if (readEnd <= byteIndex) {
+            return 0;
+        }
+
+        short filtersCount = buffer[byteIndex];
+        byteIndex++;
+
+        if (filtersCount < 0) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+        }
+
+        if (filtersCount > 0 && table == null) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+        }
+
+        return filtersCount;
+    }
+
+    /**
+     * Reads the filter: Lp columnName Lp operator Lp value
+     * The column and the operator are set, the value is checked and left in the buffer for the caller to copy.
+     * @param buffer - buffer with the filter
+     * @param table - table, to which the filter is applied
+     * @param filter - filter to set
+     * @return Offset of the Lp byte of the value in the buffer.
+     */
+    private short readFilter(byte[] buffer, Table table, Filter filter) {
+        short columnOffset = nextBytesLpOffset(buffer);
+        short columnIndex = table.getColumnIndexByName(buffer, (short) (columnOffset + 1), buffer[columnOffset]);
+
+        if (columnIndex == -1) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+        }
+
+        // The operator is the Lp block of 1 byte
+        short operatorOffset = nextBytesLpOffset(buffer);
+
+        if (buffer[operatorOffset] != 1) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+        }
+
+        byte operator = buffer[(short) (operatorOffset + 1)];
+
+        short valueOffset = nextBytesLpOffset(buffer);
+        short valueLength = buffer[valueOffset];
+        table.checkValue(columnIndex, valueLength, SCQL_ISO7816.SW_WRONG_DATA);
+
+        filter.setColumnIndex(columnIndex);
+        filter.setOperand(operator);
+
+        return valueOffset;
+    }
+
     /**
-     * Reads block of bytes defined by Lp in APDU command.
+     * Skips block of bytes defined by Lp in APDU command without copying it.
      * @param source - array of bytes.
-     * @return Read block of Lp bytes from the source array.
+     * @return Offset of the Lp byte of the block in the source array.
      */
-    private byte[] readNextBytesLp(byte[] source) {
-        short bytesToRead = source[byteIndex];
-        byte[] obj = new byte[bytesToRead];
-        Util.arrayCopy(source, (short) (byteIndex + 1), obj, (short) 0, bytesToRead);
+    private short nextBytesLpOffset(byte[] source) {
+        short offset = byteIndex;
+
+        if (offset >= readEnd) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+        }
+
+        short bytesToRead = source[offset];
         byteIndex += (short) (bytesToRead + 1);
 
-        return obj;
+        if (bytesToRead < 0 || byteIndex > readEnd) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+        }
+
+        return offset;
     }
 
     /**
-     * Method begins reading of incoming {@code APDU} block buffer and returns the command
-     * of the APDU.
+     * Method begins reading of incoming {@code APDU} block buffer. The command data is not copied,
+     * it is parsed in place from the APDU buffer between {@code byteIndex} and {@code readEnd}.
      * @param apdu incoming apfu command.
-     * @return block of data after Lc.
+     * @return APDU buffer with the command data.
      */
     private byte[] startRead(APDU apdu) {
         byte[] buffer = apdu.getBuffer();
-        byteIndex = 0;
-        
+
         // setIncomingAndReceive gets as many bytes of
         // data as will fit into the APDU buffer,
         // and returns the number of bytes it reads.
-        byte byteRead = (byte) (apdu.setIncomingAndReceive());
+        short bytesRead = apdu.setIncomingAndReceive();
 
-        if (byteRead != buffer[SCQL_ISO7816.OFFSET_LC]) {
+        if (bytesRead != apdu.getIncomingLength()) {
             ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
         }
 
-        // Copying data from APDU command
-        byte lc = buffer[SCQL_ISO7816.OFFSET_LC];
-        byte[] data = new byte[lc];
-        Util.arrayCopy(buffer, SCQL_ISO7816.OFFSET_CDATA, data, (short) 0, lc);
+        byteIndex = apdu.getOffsetCdata();
+        readEnd = (short) (byteIndex + bytesRead);
 
-        return data;
+        return buffer;
     }
 }
@@ -0,0 +1,97 @@
+package com.kpi.tuke.scql;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+
+/**
+ * Scratch pool holds the intermediate row lists of the queries, e.g. the sorted rows of the cursor
+ * or the rows selected by the set commands. The pool is allocated once in the transient memory
+ * and split into the blocks for all the rows of the table, so the queries don't allocate
+ * and don't write the persistent memory.
+ * The block of the command is released, when the next command starts. The block of the cursor
+ * is released, when the cursor is closed. All the blocks are released, when the applet is deselected.
+ */
+public class ScratchPool {
+
+    private static final byte FREE = 0;
+    private static final byte COMMAND = 1;
+    private static final byte CURSOR = 2;
+
+    private short[] rows;
+    private byte[] owners;
+    private short blockSize;
+
+    /**
+     * Allocates the pool.
+     * @param blocks amount of the blocks.
+     * @param blockSize amount of the row indexes in the block, the maximal amount of the rows in the table.
+     */
+    public ScratchPool(short blocks, short blockSize) {
+        this.blockSize = blockSize;
+        this.rows = JCSystem.makeTransientShortArray((short) (blocks * blockSize), JCSystem.CLEAR_ON_DESELECT);
+        this.owners = JCSystem.makeTransientByteArray(blocks, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    /**
+     * Acquires the block for the intermediate rows of the current command.
+     * @return offset of the block in the rows array.
+     */
+    public short acquireCommand() {
+        return acquire(COMMAND);
+    }
+
+    /**
+     * Acquires the block for the rows of the opened cursor.
+     * @return offset of the block in the rows array.
+     */
+    public short acquireCursor() {
+        return acquire(CURSOR);
+    }
+
+    /**
+     * Finds the free block and marks it by the owner.
+     * @param owner owner of the block.
+     * @return offset of the block in the rows array.
+     */
+    private short acquire(byte owner) {
+
+        for (short i = 0; i < (short) owners.length; i++) {
+            if (owners[i] == FREE) {
+                owners[i] = owner;
+                return (short) (i * blockSize);
+            }
+        }
+
+        // All the blocks are used by the opened cursors
+        ISOException.throwIt(SCQL_ISO7816.SW_SCRATCH_FULL);
+        return -1;
+    }
+
+    /**
+     * Releases the block.
+     * @param offset offset of the block in the rows array.
+     */
+    public void release(short offset) {
+        owners[(short) (offset / blockSize)] = FREE;
+    }
+
+    /**
+     * Releases the blocks of the previous command, which could stay acquired, if the command failed.
+     */
+    public void releaseCommand() {
+
+        for (short i = 0; i < (short) owners.length; i++) {
+            if (owners[i] == COMMAND) {
+                owners[i] = FREE;
+            }
+        }
+    }
+
+    public short[] getRows() {
+        return rows;
+    }
+
+    public short getBlockSize() {
+        return blockSize;
+    }
+}
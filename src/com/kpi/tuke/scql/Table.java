@@ -1,144 +1,1296 @@
 package com.kpi.tuke.scql;
 
 import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
 import javacard.framework.Util;
 
 /**
  * Class table is implemented by the definition of the table in ISO 7816-7.
  * Table consist of table name, columns and {@code Data} row information.
  * Additionally, table performs the modifications to the rows
+ * Columns can be typed, then fixed-width columns are stored without Lp at the fixed offsets
+ * at the beginning of the row, and the other columns follow as Lp blocks.
+ * The row can start with the offset directory, which holds the offset of the Lp block of every variable column
+ * in the row, so the column is located without walking the previous columns.
+ * Rows are kept either as separate {@code Data} objects, or as records in one preallocated arena of
+ * the table. The arena record is the block with the 2 bytes header of the block size, the slot directory
+ * holds the block offset of every row, and the deleted blocks are linked into the free list.
+ * The row references and the slots are stored in the segments of {@code SEGMENT_SIZE} rows, which are
+ * allocated as the table grows, so the small table doesn't reserve the space for the maximal amount of rows.
+ * The row index is the stable row ID. The deleted row leaves the tombstone, which is skipped by the scans,
+ * and the tombstones are removed by the compaction, which renumbers the rows.
  */
 public class Table implements Performable {
 
+    private CapacityProfile capacity;
+
     private byte[] tableName;
     private byte columnsN;
     private byte[] columns;
 
-    private Data[] rows;
-    private short dataCursor = 0;
+    private byte[] columnTypes;
+    private byte[] columnWidths;
+    private short[] columnOffsets;
+    private short fixedLength;
+    private short directoryLength;
+
+    // Segments of the Data references or of the arena slots
+    private Object[] segments;
+    private short dataCursor = 0;
+    private short rowsCount = 0;
+    private short version = 0;
+
+    private byte[] arena;
+    private short freeList;
+    private short freeBytes;
+
+    // Transient buffer of the database, in which the updated row is rebuilt, when it needs the space of its old block
+    private byte[] rowBuffer;
+
+    private Index[] indexes;
+    private Index primaryKey;
+    private Scan filterScan;
+
+    // Arena block header is the block size, free blocks have the flag and the offset of the next free block
+    private static final short BLOCK_HEADER = 2;
+    private static final short MIN_BLOCK = 4;
+    private static final short FREE_BLOCK = (short) 0x8000;
+
+    // Segment of the rows is allocated at once, the row index is split into the segment and the position
+    private static final short SEGMENT_SHIFT = 3;
+    private static final short SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final short SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    // Rows are compacted on insert, when more than 1/TOMBSTONE_RATIO of the row IDs are tombstones
+    private static final short TOMBSTONE_RATIO = 2;
+
+    /**
+     * Creates the table.
+     * @param tableName name of the table.
+     * @param columnsN number of columns.
+     * @param columns Lp blocks of the column names.
+     * @param columnTypes types of the columns. Null - for the untyped table.
+     * @param columnWidths widths of the fixed-width columns, 0 for the variable columns.
+     * @param arenaSize size of the row arena in bytes. 0 - the rows are stored as {@code Data} objects.
+     * @param offsetDirectory true - the rows start with the offset directory of the variable columns.
+     * @param capacity capacity profile of the database, which limits the rows and the values.
+     * @param rowBuffer transient buffer for the longest stored row, which is shared by the tables.
+     */
+    public Table(byte[] tableName, byte columnsN, byte[] columns, byte[] columnTypes, byte[] columnWidths,
+                 short arenaSize, boolean offsetDirectory, CapacityProfile capacity, byte[] rowBuffer) {
+        this.capacity = capacity;
+        this.rowBuffer = rowBuffer;
+        this.tableName = tableName;
+        this.columnsN = columnsN;
+        this.columns = columns;
+        filterScan = new Scan();
+        segments = new Object[(short) ((short) (capacity.getMaxRows() + SEGMENT_MASK) >> SEGMENT_SHIFT)];
+
+        if (arenaSize > 0) {
+            if (arenaSize < MIN_BLOCK) {
+                ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
+            }
+
+            // The whole arena is one free block
+            arena = new byte[arenaSize];
+            Util.setShort(arena, (short) 0, (short) (arenaSize | FREE_BLOCK));
+            Util.setShort(arena, BLOCK_HEADER, (short) -1);
+            freeList = 0;
+            freeBytes = arenaSize;
+        }
+
+        // The untyped table with the directory is stored as the table of the variable BYTES columns
+        if (columnTypes == null && offsetDirectory) {
+            columnTypes = new byte[columnsN];
+            columnWidths = new byte[columnsN];
+        }
+
+        if (columnTypes == null) {
+            return;
+        }
+
+        this.columnTypes = columnTypes;
+        this.columnWidths = columnWidths;
+
+        // Fixed-width columns get the fixed offsets, other columns get the order among variable columns
+        columnOffsets = new short[columnsN];
+        fixedLength = 0;
+        short variableColumns = 0;
+
+        for (short i = 0; i < columnsN; i++) {
+            if (columnWidths[i] != 0) {
+                columnOffsets[i] = fixedLength;
+                fixedLength += columnWidths[i];
+            } else {
+                columnOffsets[i] = variableColumns;
+                variableColumns++;
+            }
+        }
+
+        // The directory is the part of the fixed prefix of the row, the fixed-width columns follow it
+        if (offsetDirectory) {
+            directoryLength = variableColumns;
+            fixedLength += directoryLength;
+
+            for (short i = 0; i < columnsN; i++) {
+                if (columnWidths[i] != 0) {
+                    columnOffsets[i] += directoryLength;
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the row, by index. The row is replaced by the tombstone, so the IDs of the other rows
+     * are not changed. The row ID is not reused until the compaction, which changes the table version.
+     * The row is removed from the indexes and from the arena in one transaction.
+     * @param rowIndex table row index.
+     */
+    @Override
+    public void delete(short rowIndex) {
+
+        if (!isRow(rowIndex)) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+        }
+
+        boolean transaction = JCSystem.getTransactionDepth() == 0;
+
+        if (transaction) {
+            JCSystem.beginTransaction();
+        }
+
+        // Removing the row from the indexes, while the row values can be compared
+        if (indexes != null) {
+            for (short i = 0; i < columnsN; i++) {
+                if (indexes[i] != null) {
+                    indexes[i].remove(rowIndex);
+                }
+            }
+        }
+
+        if (arena != null) {
+            free(getSlot(rowIndex));
+            setSlot(rowIndex, (short) -1);
+        } else {
+            setRow(rowIndex, null);
+        }
+
+        rowsCount--;
+
+        if (transaction) {
+            JCSystem.commitTransaction();
+        }
+    }
+
+    /**
+     * Checks if the row ID refers to the stored row.
+     * @param rowIndex table row index.
+     * @return true - if the row exists. false - if the index is out of the rows or the row is deleted.
+     */
+    public boolean isRow(short rowIndex) {
+
+        if (rowIndex < 0 || rowIndex >= dataCursor) {
+            return false;
+        }
+
+        return arena != null ? getSlot(rowIndex) != -1 : getRow(rowIndex) != null;
+    }
+
+    /**
+     * Checks, that the column of the row can be updated by the value. The new value should fit
+     * the column type, and the new primary key should not exist in the table.
+     * @param rowIndex table row index.
+     * @param columnIndex index of the column.
+     * @param value array with the new value.
+     * @param offset offset of the value.
+     * @param length length of the value.
+     */
+    @Override
+    public void checkUpdate(short rowIndex, short columnIndex, byte[] value, short offset, short length) {
+
+        if (!isRow(rowIndex)) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+        }
+
+        if (length < 0 || length > capacity.getMaxDataColumnLength()) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+        }
+
+        checkValue(columnIndex, length, SCQL_ISO7816.SW_WRONG_LENGTH);
+
+        if (primaryKey != null && primaryKey.getColumnIndex() == columnIndex
+                && compareColumn(getRowData(rowIndex), getRowOffset(rowIndex), columnIndex, value, offset, length) != 0
+                && primaryKey.contains(value, offset, length)) {
+            ISOException.throwIt(SCQL_ISO7816.SW_OBJECT_EXIST);
+        }
+    }
+
+    /**
+     * Updates the column of the row. The value of the same length is overwritten in place,
+     * only the value of another length rebuilds the row. The value equal to the stored one is not written. In the arena, the row is rebuilt in its
+     * block, if the new row fits there. The longer row is moved into the new block, and if the free space is not enough
+     * without the old block, the blocks behind the row are moved to the end of the arena before the transaction,
+     * so the row grows in place into the free space behind it.
+     * The index of the column is updated with the value.
+     * @param rowIndex table row index.
+     * @param columnIndex index of the column.
+     * @param value array with the new value.
+     * @param offset offset of the value.
+     * @param length length of the value.
+     */
+    @Override
+    public void update(short rowIndex, short columnIndex, byte[] value, short offset, short length) {
+
+        checkUpdate(rowIndex, columnIndex, value, offset, length);
+
+        byte[] data = getRowData(rowIndex);
+        short rowOffset = getRowOffset(rowIndex);
+
+        // The equal value is not written, and the row keeps its position in the index
+        if (compareColumn(data, rowOffset, columnIndex, value, offset, length) == 0) {
+            return;
+        }
+
+        short valueOffset = getColumnOffset(data, rowOffset, columnIndex);
+        short oldLength = getColumnLength(data, valueOffset, columnIndex);
+        Index index = indexes != null ? indexes[columnIndex] : null;
+
+        // The value of the same length, which is not indexed, is the single atomic copy
+        if (length == oldLength && index == null) {
+            Util.arrayCopy(value, offset, data, valueOffset, length);
+            return;
+        }
+
+        boolean fixed = columnWidths != null && columnWidths[columnIndex] != 0;
+        short rowEnd = getRowEnd(data, rowOffset);
+        short rowLength = (short) (rowEnd - rowOffset + length - oldLength);
+        short block = -1;
+        boolean buffered = false;
+
+        // The longer row, which doesn't fit the arena block, is moved into the new block.
+        // The block is allocated before the transaction, as the allocation can compact the arena.
+        if (!fixed && arena != null && rowLength > (short) (Util.getShort(arena, getSlot(rowIndex)) - BLOCK_HEADER)) {
+            short size = getBlockSize(rowLength);
+
+            if (size <= freeBytes) {
+                block = allocate(rowLength);
+
+                rowOffset = getRowOffset(rowIndex);
+                valueOffset = getColumnOffset(data, rowOffset, columnIndex);
+                rowEnd = getRowEnd(data, rowOffset);
+            } else if (size > (short) (freeBytes + Util.getShort(arena, getSlot(rowIndex)))) {
+                ISOException.throwIt(SCQL_ISO7816.SW_FILE_FULL);
+            } else {
+                // The new row needs the space of the old block, so it is kept in the buffer, while the block grows
+                DatabaseUtil.replace(arena, rowOffset, rowEnd, valueOffset, value, offset, length, rowBuffer, (short) 0);
+                shiftDirectory(rowBuffer, (short) 0, columnIndex, (short) (length - oldLength));
+                compactArenaBehind(rowIndex);
+                buffered = true;
+            }
+        }
+
+        boolean transaction = JCSystem.getTransactionDepth() == 0;
+
+        if (transaction) {
+            JCSystem.beginTransaction();
+        }
+
+        if (index != null) {
+            index.remove(rowIndex);
+        }
+
+        if (fixed) {
+            Util.arrayCopy(value, offset, data, valueOffset, length);
+
+            // Padding CHAR value with spaces
+            for (short i = length; i < columnWidths[columnIndex]; i++) {
+                data[(short) (valueOffset + i)] = 0x20;
+            }
+        } else if (length == oldLength) {
+            Util.arrayCopy(value, offset, data, valueOffset, length);
+        } else if (arena == null) {
+            byte[] newData = new byte[rowLength];
+            DatabaseUtil.replace(data, rowOffset, rowEnd, valueOffset, value, offset, length, newData, (short) 0);
+            shiftDirectory(newData, (short) 0, columnIndex, (short) (length - oldLength));
+            getRow(rowIndex).setData(newData);
+        } else if (buffered) {
+            block = getSlot(rowIndex);
+            growBlock(block, getBlockSize(rowLength));
+            Util.arrayCopy(rowBuffer, (short) 0, arena, (short) (block + BLOCK_HEADER), rowLength);
+        } else if (block == -1) {
+            DatabaseUtil.replace(arena, rowOffset, rowEnd, valueOffset, value, offset, length, arena, rowOffset);
+            shiftDirectory(arena, rowOffset, columnIndex, (short) (length - oldLength));
+        } else {
+            DatabaseUtil.replace(arena, rowOffset, rowEnd, valueOffset, value, offset, length,
+                    arena, (short) (block + BLOCK_HEADER));
+            shiftDirectory(arena, (short) (block + BLOCK_HEADER), columnIndex, (short) (length - oldLength));
+            free(getSlot(rowIndex));
+            setSlot(rowIndex, block);
+        }
+
+        if (index != null) {
+            index.add(rowIndex);
+        }
+
+        if (transaction) {
+            JCSystem.commitTransaction();
+        }
+    }
+
+    /**
+     * Moves the directory offsets of the variable columns behind the changed column.
+     * @param data array with the data row.
+     * @param rowOffset offset of the row in the array.
+     * @param columnIndex index of the changed variable column.
+     * @param delta change of the column length.
+     */
+    private void shiftDirectory(byte[] data, short rowOffset, short columnIndex, short delta) {
+
+        if (directoryLength == 0) {
+            return;
+        }
+
+        for (short i = (short) (columnOffsets[columnIndex] + 1); i < directoryLength; i++) {
+            data[(short) (rowOffset + i)] += delta;
+        }
+    }
+
+    /**
+     * Gets the offset of the Lp block of the variable column from the directory of the row.
+     * @param data array with the data row.
+     * @param rowOffset offset of the row in the array.
+     * @param variableColumn order of the column among the variable columns.
+     * @return offset of the Lp block of the column in the array.
+     */
+    private short getDirectoryOffset(byte[] data, short rowOffset, short variableColumn) {
+        return (short) (rowOffset + (data[(short) (rowOffset + variableColumn)] & 0xFF));
+    }
+
+    /**
+     * Gets the end of the stored row.
+     * @param data array with the data row.
+     * @param rowOffset offset of the row in the array.
+     * @return offset behind the last column of the row.
+     */
+    private short getRowEnd(byte[] data, short rowOffset) {
+
+        // The end of the last variable column
+        if (directoryLength != 0) {
+            short offset = getDirectoryOffset(data, rowOffset, (short) (directoryLength - 1));
+            return (short) (offset + data[offset] + 1);
+        }
+
+        short offset = rowOffset;
+
+        if (columnWidths != null) {
+            offset += fixedLength;
+        }
+
+        // Skipping the variable columns, they follow the fixed-width columns
+        for (short i = 0; i < columnsN; i++) {
+            if (columnWidths == null || columnWidths[i] == 0) {
+                offset += (short) (data[offset] + 1);
+            }
+        }
+
+        return offset;
+    }
+
+    /**
+     * Filters the rows by specified filters.
+     * All the filters are evaluated on a row at once and the survivors are written in one pass.
+     * If the filter column has an index, only the index range of the filter is scanned.
+     * @param filters filters to apply.
+     * @param rowIndexes array for the indexes of the filtered rows.
+     * @param offset offset of the filtered rows in the array.
+     * @return number of the filtered rows.
+     */
+    @Override
+    public short filter(Filter[] filters, short[] rowIndexes, short offset) {
+        return filter(filters, null, rowIndexes, offset);
+    }
+
+    /**
+     * Filters the rows by two sets of filters.
+     * @param filters filters to apply, can be null.
+     * @param moreFilters additional filters to apply, can be null.
+     * @param rowIndexes array for the indexes of the filtered rows.
+     * @param offset offset of the filtered rows in the array.
+     * @return number of the filtered rows.
+     */
+    public short filter(Filter[] filters, Filter[] moreFilters, short[] rowIndexes, short offset) {
+        short count = 0;
+
+        initScan(filterScan, filters, moreFilters);
+
+        for (short i = seek(filterScan, filters, moreFilters); i != -1; i = seek(filterScan, filters, moreFilters)) {
+            rowIndexes[(short) (offset + count)] = i;
+            count++;
+            filterScan.next();
+        }
+
+        return count;
+    }
+
+    /**
+     * Initializes the scan of the table rows for the filters.
+     * @param scan scan to initialize.
+     * @param filters filters to apply, can be null.
+     */
+    @Override
+    public void initScan(Scan scan, Filter[] filters) {
+        initScan(scan, filters, null);
+    }
+
+    /**
+     * Initializes the scan of the table rows for two sets of filters. If none of the filters can use
+     * an index, the table with the primary key is scanned in the key order.
+     * @param scan scan to initialize.
+     * @param filters filters to apply, can be null.
+     * @param moreFilters additional filters to apply, can be null.
+     */
+    public void initScan(Scan scan, Filter[] filters, Filter[] moreFilters) {
+        scan.reset();
+        narrowScan(scan, filters);
+        narrowScan(scan, moreFilters);
+
+        if (scan.getIndex() == null && primaryKey != null) {
+            scan.setRange(primaryKey, (short) 0, primaryKey.getCount());
+        }
+    }
+
+    /**
+     * Restricts the full table scan to the index range, if any of the filters can use an index.
+     * Equality filters are preferred to the range filters.
+     * @param scan scan to restrict.
+     * @param filters filters to apply, can be null.
+     */
+    private void narrowScan(Scan scan, Filter[] filters) {
+
+        if (filters == null || indexes == null || scan.getIndex() != null) {
+            return;
+        }
+
+        Filter rangeFilter = null;
+
+        for (short i = 0; i < filters.length; i++) {
+            Filter filter = filters[i];
+            Index index = indexes[filter.getColumnIndex()];
+
+            if (index == null) {
+                continue;
+            }
+
+            if (filter.getOperand() == 0x3d) {
+                scan.setRange(index, filter);
+                return;
+            }
+
+            if (rangeFilter == null && isRangeOperand(filter.getOperand())) {
+                rangeFilter = filter;
+            }
+        }
+
+        if (rangeFilter != null) {
+            scan.setRange(indexes[rangeFilter.getColumnIndex()], rangeFilter);
+        }
+    }
+
+    /**
+     * Finds the first row from the current scan position, which applies all the filters.
+     * Used by the cursor to move through the rows without materializing the result.
+     * @param scan scan positioned on the row to start from.
+     * @param filters filters to apply, can be null.
+     * @return index of the found row. -1 - if there is no such row.
+     */
+    @Override
+    public short seek(Scan scan, Filter[] filters) {
+        return seek(scan, filters, null);
+    }
+
+    /**
+     * Finds the first row from the current scan position, which applies two sets of filters.
+     * @param scan scan positioned on the row to start from.
+     * @param filters filters to apply, can be null.
+     * @param moreFilters additional filters to apply, can be null.
+     * @return index of the found row. -1 - if there is no such row.
+     */
+    public short seek(Scan scan, Filter[] filters, Filter[] moreFilters) {
+
+        for (short i = scan.getRowIndex(dataCursor); i != -1; i = scan.getRowIndex(dataCursor)) {
+            // Skipping the tombstones
+            if (!isRow(i)) {
+                scan.next();
+                continue;
+            }
+
+            byte[] data = getRowData(i);
+            short rowOffset = getRowOffset(i);
+
+            if (isFiltersApply(data, rowOffset, filters) && isFiltersApply(data, rowOffset, moreFilters)) {
+                return i;
+            }
+
+            scan.next();
+        }
+
+        return -1;
+    }
+
+    /**
+     * Selects the columns of the row into the destination array.
+     * @param rowIndex table row index.
+     * @param columnIndexes indexes of the columns to select.
+     * @param dest destination array.
+     * @param offset offset in the destination array.
+     * @param limit end of the space in the destination array.
+     * @return offset behind the selected Lp blocks. -1 - if the columns don't fit into the space.
+     */
+    @Override
+    public short select(short rowIndex, byte[] columnIndexes, byte[] dest, short offset, short limit) {
+        return project(getRowData(rowIndex), getRowOffset(rowIndex), columnIndexes, null, dest, offset, limit);
+    }
+
+    /**
+     * Writes the Lp blocks of the selected columns of the row into the destination array, e.g. the APDU buffer.
+     * The variable columns are walked from the last written variable column, so the columns selected
+     * in the table order are located in one pass over the row.
+     * @param data array with the data row.
+     * @param rowOffset offset of the row in the array.
+     * @param columnIndexes indexes of the columns to select.
+     * @param columnsMap maps the column indexes to the table columns (e.g. view columns).
+     *                   Null - if the column indexes refer the table columns directly.
+     * @param dest destination array.
+     * @param offset offset in the destination array.
+     * @param limit end of the space in the destination array.
+     * @return offset behind the written Lp blocks. -1 - if the columns don't fit into the space.
+     */
+    public short project(byte[] data, short rowOffset, byte[] columnIndexes, byte[] columnsMap,
+                         byte[] dest, short offset, short limit) {
+        short variableStart = columnWidths != null ? (short) (rowOffset + fixedLength) : rowOffset;
+        short variableOffset = variableStart;
+        short variableColumn = 0;
+
+        for (short i = 0; i < columnIndexes.length; i++) {
+            short columnIndex = columnsMap == null ? columnIndexes[i] : columnsMap[columnIndexes[i]];
+            short valueOffset;
+            short length;
+
+            if (columnWidths != null && columnWidths[columnIndex] != 0) {
+                valueOffset = (short) (rowOffset + columnOffsets[columnIndex]);
+                length = columnWidths[columnIndex];
+            } else {
+                short column = columnWidths != null ? columnOffsets[columnIndex] : columnIndex;
+
+                // The column is located by the directory
+                if (directoryLength != 0) {
+                    variableOffset = getDirectoryOffset(data, rowOffset, column);
+                    variableColumn = column;
+                }
+
+                // Walking from the start again, if the column is before the last written one
+                if (column < variableColumn) {
+                    variableOffset = variableStart;
+                    variableColumn = 0;
+                }
+
+                for (; variableColumn < column; variableColumn++) {
+                    variableOffset += (short) (data[variableOffset] + 1);
+                }
+
+                valueOffset = (short) (variableOffset + 1);
+                length = data[variableOffset];
+            }
+
+            if ((short) (offset + length + 1) > limit) {
+                return -1;
+            }
+
+            dest[offset] = (byte) length;
+            offset = Util.arrayCopyNonAtomic(data, valueOffset, dest, (short) (offset + 1), length);
+        }
+
+        return offset;
+    }
+
+    /**
+     * Method checks if all the filters can be applied for the data row.
+     * Filters are AND-ed, so the check stops at the first filter, which is not applied.
+     * @param data array with the data row.
+     * @param rowOffset offset of the row in the array.
+     * @param filters filters to apply, can be null.
+     * @return true - if all the filters are applied. false - otherwise.
+     */
+    public boolean isFiltersApply(byte[] data, short rowOffset, Filter[] filters) {
+
+        if (filters == null) {
+            return true;
+        }
+
+        for (short i = 0; i < filters.length; i++) {
+            if (!filters[i].isApply(this, data, rowOffset)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Compares the column of the data row with the value in place. Integer columns are compared
+     * as signed numbers, CHAR columns as strings padded with spaces, other columns byte by byte.
+     * @param data array with the data row.
+     * @param rowOffset offset of the row in the array.
+     * @param columnIndex index of the column.
+     * @param value array with the value.
+     * @param offset offset of the value.
+     * @param length length of the value.
+     * @return negative if the column is smaller, positive if larger, 0 - if equal.
+     */
+    public short compareColumn(byte[] data, short rowOffset, short columnIndex, byte[] value, short offset, short length) {
+
+        short valueOffset = getColumnOffset(data, rowOffset, columnIndex);
+
+        if (columnTypes == null) {
+            return DatabaseUtil.compareArrays(data, valueOffset, data[(short) (valueOffset - 1)], value, offset, length);
+        }
+
+        switch (columnTypes[columnIndex]) {
+            case SCQL_ISO7816.TYPE_INT8:
+                return DatabaseUtil.compareShorts(data[valueOffset], value[offset]);
+            case SCQL_ISO7816.TYPE_INT16:
+                return DatabaseUtil.compareShorts(Util.getShort(data, valueOffset), Util.getShort(value, offset));
+            case SCQL_ISO7816.TYPE_INT32:
+                // Signed high halves, then unsigned low halves
+                short comparison = DatabaseUtil.compareShorts(Util.getShort(data, valueOffset), Util.getShort(value, offset));
+
+                if (comparison != 0) {
+                    return comparison;
+                }
+
+                return DatabaseUtil.compareArrays(data, (short) (valueOffset + 2), (short) 2, value, (short) (offset + 2), (short) 2);
+            case SCQL_ISO7816.TYPE_CHAR:
+                return DatabaseUtil.compareChars(data, valueOffset, columnWidths[columnIndex], value, offset, length);
+            default:
+                return DatabaseUtil.compareArrays(data, valueOffset, data[(short) (valueOffset - 1)], value, offset, length);
+        }
+    }
+
+    /**
+     * Compares the column of two rows.
+     * @param rowIndex1 index of the first row.
+     * @param rowIndex2 index of the second row.
+     * @param columnIndex index of the column.
+     * @return negative if the column of the first row is smaller, positive if larger, 0 - if equal.
+     */
+    public short compareRows(short rowIndex1, short rowIndex2, short columnIndex) {
+        byte[] data = getRowData(rowIndex2);
+        short valueOffset = getColumnOffset(data, getRowOffset(rowIndex2), columnIndex);
+
+        return compareColumn(getRowData(rowIndex1), getRowOffset(rowIndex1), columnIndex,
+                data, valueOffset, getColumnLength(data, valueOffset, columnIndex));
+    }
+
+    /**
+     * Gets the offset of the column value in the data row.
+     * @param data array with the data row.
+     * @param rowOffset offset of the row in the array.
+     * @param columnIndex index of the column.
+     * @return offset of the column value in the array.
+     */
+    public short getColumnOffset(byte[] data, short rowOffset, short columnIndex) {
+
+        if (columnWidths == null) {
+            return (short) (DatabaseUtil.getOffset(data, rowOffset, columnIndex) + 1);
+        }
+
+        if (columnWidths[columnIndex] != 0) {
+            return (short) (rowOffset + columnOffsets[columnIndex]);
+        }
+
+        if (directoryLength != 0) {
+            return (short) (getDirectoryOffset(data, rowOffset, columnOffsets[columnIndex]) + 1);
+        }
+
+        // Skipping the variable columns before the column
+        short offset = (short) (rowOffset + fixedLength);
+        for (short i = 0; i < columnOffsets[columnIndex]; i++) {
+            offset += (short) (data[offset] + 1);
+        }
+
+        return (short) (offset + 1);
+    }
+
+    /**
+     * Gets the length of the column value in the data row.
+     * @param data data row.
+     * @param valueOffset offset of the column value.
+     * @param columnIndex index of the column.
+     * @return length of the column value.
+     */
+    public short getColumnLength(byte[] data, short valueOffset, short columnIndex) {
+
+        if (columnWidths == null || columnWidths[columnIndex] == 0) {
+            return data[(short) (valueOffset - 1)];
+        }
+
+        return columnWidths[columnIndex];
+    }
+
+    /**
+     * Checks the Lp blocks of the row columns, as they are sent in the command.
+     * @param source array with the row.
+     * @param offset offset of the first column Lp.
+     * @param end end of the row data in the source array.
+     * @return Offset behind the last column of the row.
+     */
+    public short checkRow(byte[] source, short offset, short end) {
+
+        // Reading Lp of data block and checking the length of it
+        for (short i = 0; i < columnsN; i++) {
+
+            if (offset >= end) {
+                ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+            }
+
+            byte dataLp = source[offset];
+            offset += (short) (dataLp + 1);
+
+            if (dataLp < 0 || dataLp > capacity.getMaxDataColumnLength()) {
+                ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+            }
+
+            if (columnTypes != null) {
+                checkValue(i, dataLp, SCQL_ISO7816.SW_WRONG_LENGTH);
+            }
+        }
+
+        if (offset > end) {
+            ISOException.throwIt(SCQL_ISO7816.SW_WRONG_LENGTH);
+        }
+
+        return offset;
+    }
+
+    /**
+     * Checks the length of the value for the typed column. Integer values should have the width of
+     * the column, CHAR values can be shorter, they are padded with spaces.
+     * @param columnIndex index of the column.
+     * @param length length of the value.
+     * @param sw status word to throw, if the value doesn't fit.
+     */
+    public void checkValue(short columnIndex, short length, short sw) {
+
+        if (columnTypes == null || columnWidths[columnIndex] == 0) {
+            return;
+        }
+
+        if (columnTypes[columnIndex] == SCQL_ISO7816.TYPE_CHAR) {
+            if (length > columnWidths[columnIndex]) {
+                ISOException.throwIt(sw);
+            }
+        } else if (length != columnWidths[columnIndex]) {
+            ISOException.throwIt(sw);
+        }
+    }
+
+    /**
+     * Adds the row from the checked Lp blocks of the columns into the table. The primary key
+     * of the row is checked before the row is stored.
+     * @param source array with the row.
+     * @param offset offset of the first column Lp.
+     * @param end end of the row data in the source array.
+     */
+    public void insertRow(byte[] source, short offset, short end) {
+
+        if (rowsCount >= capacity.getMaxRows()) {
+            ISOException.throwIt(SCQL_ISO7816.SW_FILE_FULL);
+        }
+
+        checkPrimaryKey(source, offset);
+
+        // Compacting the rows, if there is no free row ID or too many tombstones
+        if (dataCursor >= capacity.getMaxRows()) {
+            compactRows();
+        } else {
+            compactTombstones();
+        }
+
+        short length = getRowLength(source, offset, end);
+
+        addSegment(dataCursor);
+
+        if (arena == null) {
+            byte[] data = new byte[length];
+            makeRow(source, offset, length, data, (short) 0);
+            addData(new Data(data));
+            return;
+        }
+
+        short block = allocate(length);
+        makeRow(source, offset, length, arena, (short) (block + BLOCK_HEADER));
+
+        setSlot(dataCursor, block);
+        dataCursor++;
+        rowsCount++;
+
+        addToIndexes((short) (dataCursor - 1));
+    }
+
+    /**
+     * Counts the length of the stored row. For the typed table, fixed-width values are stored
+     * without Lp.
+     * @param source array with the row.
+     * @param offset offset of the first column Lp.
+     * @param end end of the row data in the source array.
+     * @return length of the stored row.
+     */
+    private short getRowLength(byte[] source, short offset, short end) {
+
+        if (columnTypes == null) {
+            return (short) (end - offset);
+        }
+
+        // Counting the length of the variable columns
+        short length = fixedLength;
+
+        for (short i = 0; i < columnsN; i++) {
+            short lp = source[offset];
 
-    public Table(byte[] tableName, byte columnsN, byte[] columns) {
-        this.tableName = tableName;
-        this.columnsN = columnsN;
-        this.columns = columns;
-        rows = new Data[SCQL_ISO7816.MAX_ROWS];
+            if (columnWidths[i] == 0) {
+                length += (short) (lp + 1);
+            }
+
+            offset += (short) (lp + 1);
+        }
+
+        return length;
     }
 
     /**
-     * Deletes the row, by index.
-     * @param rowIndex table row index.
+     * Writes the stored row from the checked Lp blocks of the columns. For the typed table,
+     * fixed-width values are written at the fixed offsets without Lp.
+     * @param source array with the row.
+     * @param offset offset of the first column Lp.
+     * @param length length of the stored row.
+     * @param data array for the stored row.
+     * @param rowOffset offset of the stored row.
      */
-    @Override
-    public void delete(short rowIndex) {
+    private void makeRow(byte[] source, short offset, short length, byte[] data, short rowOffset) {
 
-        if (rowIndex < 0 || rowIndex >= dataCursor) {
-            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+        if (columnTypes == null) {
+            Util.arrayCopy(source, offset, data, rowOffset, length);
+            return;
         }
 
-        rows[rowIndex] = null;
-        dataCursor--;
+        short variableOffset = (short) (rowOffset + fixedLength);
 
-        for (short i = rowIndex; i < dataCursor; i++) {
-            rows[i] = rows[(short) (i + 1)];
-        }
+        for (short i = 0; i < columnsN; i++) {
+            short lp = source[offset];
+            offset++;
 
-        rows[dataCursor] = null;
+            if (columnWidths[i] != 0) {
+                short columnOffset = (short) (rowOffset + columnOffsets[i]);
+                Util.arrayCopy(source, offset, data, columnOffset, lp);
+
+                // Padding CHAR value with spaces
+                if (lp < columnWidths[i]) {
+                    Util.arrayFillNonAtomic(data, (short) (columnOffset + lp), (short) (columnWidths[i] - lp), (byte) 0x20);
+                }
+            } else {
+                if (directoryLength != 0) {
+                    data[(short) (rowOffset + columnOffsets[i])] = (byte) (variableOffset - rowOffset);
+                }
+
+                data[variableOffset] = (byte) lp;
+                Util.arrayCopy(source, offset, data, (short) (variableOffset + 1), lp);
+                variableOffset += (short) (lp + 1);
+            }
+
+            offset += lp;
+        }
     }
 
     /**
-     * Updates the column data to the pointed column index.
-     * @param data new data to update.
-     * @param columnIndex index of column.
+     * Allocates the arena block for the row. If the free space is fragmented,
+     * the arena is compacted first.
+     * @param length length of the row.
+     * @return offset of the block.
      */
-    @Override
-    public void update(byte[] data, short columnIndex) {
+    private short allocate(short length) {
+        short size = getBlockSize(length);
 
-        if (data == null || data.length == 0) {
-            ISOException.throwIt(SCQL_ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+        if (size > freeBytes) {
+            ISOException.throwIt(SCQL_ISO7816.SW_FILE_FULL);
         }
 
-        if (columnIndex < 0 || columnIndex >= dataCursor) {
-            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+        short block = takeFreeBlock(size);
+
+        if (block == -1) {
+            compactArena();
+            block = takeFreeBlock(size);
         }
 
-        Data dataRow = rows[columnIndex];
+        return block;
+    }
+
+    /**
+     * Gets the size of the arena block for the row.
+     * @param length length of the row.
+     * @return size of the block with its header.
+     */
+    private short getBlockSize(short length) {
+        short size = (short) (length + BLOCK_HEADER);
 
+        if (size < MIN_BLOCK) {
+            size = MIN_BLOCK;
+        }
 
+        return size;
     }
 
     /**
-     * Filters the rows by specified filters.
-     * @param filters filters to apply.
-     * @return filtered {@code Data}.
+     * Takes the first free block, which is large enough. The rest of the larger block stays free.
+     * @param size size of the block.
+     * @return offset of the block. -1 - if there is no such free block.
      */
-    @Override
-    public Data[] filter(Filter[] filters) {
+    private short takeFreeBlock(short size) {
+        short previous = -1;
 
-        Data[] buffer = new Data[dataCursor];
+        for (short block = freeList; block != -1; block = Util.getShort(arena, (short) (block + BLOCK_HEADER))) {
+            short blockSize = (short) (Util.getShort(arena, block) & ~FREE_BLOCK);
 
-        // Filling the buffer
-        for (short i = 0; i < dataCursor; i++) {
-            buffer[i] = rows[i];
+            if (blockSize >= size) {
+                short rest = (short) (blockSize - size);
+
+                // Splitting the block, the head stays in the free list
+                if (rest >= MIN_BLOCK) {
+                    Util.setShort(arena, block, (short) (rest | FREE_BLOCK));
+                    block += rest;
+                    blockSize = size;
+                } else if (previous == -1) {
+                    freeList = Util.getShort(arena, (short) (block + BLOCK_HEADER));
+                } else {
+                    Util.setShort(arena, (short) (previous + BLOCK_HEADER), Util.getShort(arena, (short) (block + BLOCK_HEADER)));
+                }
+
+                Util.setShort(arena, block, blockSize);
+                freeBytes -= blockSize;
+
+                return block;
+            }
+
+            previous = block;
         }
 
-        // No filters to apply
-        if (filters == null) {
-            return buffer;
+        return -1;
+    }
+
+    /**
+     * Returns the arena block into the free list.
+     * @param block offset of the block.
+     */
+    private void free(short block) {
+        short size = Util.getShort(arena, block);
+
+        Util.setShort(arena, block, (short) (size | FREE_BLOCK));
+        Util.setShort(arena, (short) (block + BLOCK_HEADER), freeList);
+        freeList = block;
+        freeBytes += size;
+    }
+
+    /**
+     * Compacts the table. The tombstones are removed and the arena is defragmented.
+     */
+    public void compact() {
+        compactRows();
+        compactArena();
+    }
+
+    /**
+     * Compacts the rows, when more than 1/{@code TOMBSTONE_RATIO} of the row IDs are tombstones.
+     */
+    public void compactTombstones() {
+        if ((short) ((short) (dataCursor - rowsCount) * TOMBSTONE_RATIO) > dataCursor) {
+            compactRows();
         }
+    }
 
-        // Filtering all the data in the buffer
-        for (short i = 0; i < filters.length; i++) {
-            Filter filter = filters[i];
-            short columnIndex = getColumnIndexByName(filter.getColumnName());
+    /**
+     * Removes the tombstones. The following rows are moved to the lower IDs in their order, so the
+     * table version is changed and the open cursors of the table should be reopened.
+     * Every moved row is committed together with its index entries, so the tear leaves the table consistent.
+     */
+    private void compactRows() {
 
-            // Applying filters
-            for (short j = 0; j < dataCursor; j++) {
-                Data row = buffer[j];
+        if (rowsCount == dataCursor) {
+            return;
+        }
 
-                if (row == null) {
-                    continue;
-                }
+        short rowIndex = 0;
 
-                // If filter is NOT apply, then remove the row from buffer
-                if (!row.isFilterApply(columnIndex, filter.getOperand(), filter.getValue())) {
-                    buffer[j] = null;
+        for (short i = 0; i < dataCursor; i++) {
+            if (isRow(i)) {
+                if (i != rowIndex) {
+                    moveRow(i, rowIndex);
                 }
+
+                rowIndex++;
             }
+        }
+
+        dataCursor = rowIndex;
+        version++;
+    }
+
+    private void moveRow(short rowIndex, short destination) {
+        boolean transaction = JCSystem.getTransactionDepth() == 0;
+
+        if (transaction) {
+            JCSystem.beginTransaction();
+        }
+
+        if (arena != null) {
+            setSlot(destination, getSlot(rowIndex));
+            setSlot(rowIndex, (short) -1);
+        } else {
+            setRow(destination, getRow(rowIndex));
+            getRow(destination).setIndex(destination);
+            setRow(rowIndex, null);
+        }
 
-            // Checking, if the buffer is empty after filtering
-            boolean isEmpty = true;
-            for (short j = 0; j < dataCursor; j++) {
-                if (buffer[j] != null) {
-                    isEmpty = false;
-                    break;
+        if (indexes != null) {
+            for (short i = 0; i < columnsN; i++) {
+                if (indexes[i] != null) {
+                    indexes[i].renumber(rowIndex, destination);
                 }
             }
+        }
+
+        if (transaction) {
+            JCSystem.commitTransaction();
+        }
+    }
+
+    /**
+     * Defragments the arena. The row blocks are moved to the beginning of the arena in their order,
+     * and the free space is joined into one block at the end. The row IDs are not changed.
+     * The free list is emptied first, as the moved blocks overwrite the free blocks. Every moved block
+     * is committed together with its slot and with the free header of the space behind it, so the arena
+     * can be walked by the block headers after the tear. The allocation after the tear finds no free block
+     * and compacts the arena again, which rebuilds the free list.
+     * Tables without the arena are not fragmented, so nothing is done for them.
+     */
+    private void compactArena() {
 
-            // If the buffer empty, there is no reason to continue filtering
-            if (isEmpty) {
-                return new Data[0];
+        if (arena == null) {
+            return;
+        }
+
+        short top = 0;
+        short block = 0;
+
+        freeList = -1;
+
+        while (block < (short) arena.length) {
+            short header = Util.getShort(arena, block);
+            short size = (short) (header & ~FREE_BLOCK);
+
+            // The used block without the slot was left by the interrupted insert or update, so it is dropped
+            short slot = (header & FREE_BLOCK) == 0 ? findSlot(block) : -1;
+
+            if (slot != -1) {
+                if (block != top) {
+                    moveBlock(slot, top, size, block);
+                }
+
+                top += size;
             }
+
+            block += size;
         }
 
-        // Counting filtered rows
-        short countFilteredData = 0;
-        for (short i = 0; i < dataCursor; i++) {
-            if (buffer[i] != null) {
-                countFilteredData++;
+        short size = (short) (arena.length - top);
+        boolean transaction = JCSystem.getTransactionDepth() == 0;
+
+        if (transaction) {
+            JCSystem.beginTransaction();
+        }
+
+        if (size != 0) {
+            Util.setShort(arena, top, (short) (size | FREE_BLOCK));
+            Util.setShort(arena, (short) (top + BLOCK_HEADER), (short) -1);
+            freeList = top;
+        }
+
+        freeBytes = size;
+
+        if (transaction) {
+            JCSystem.commitTransaction();
+        }
+    }
+
+    /**
+     * Compacts the arena and moves the blocks behind the row block to the end of the arena, so the only
+     * free block follows the row block. The blocks are moved from the last one, every moved block is committed
+     * together with its slot and with the free block left in front of it, so the arena stays walkable.
+     * @param rowIndex table row index of the block.
+     */
+    private void compactArenaBehind(short rowIndex) {
+        compactArena();
+
+        short rowEnd = (short) (getSlot(rowIndex) + Util.getShort(arena, getSlot(rowIndex)));
+        short end = (short) (arena.length - freeBytes);
+
+        while (end > rowEnd) {
+            short block = rowEnd;
+
+            // Finding the last block in front of the moved blocks
+            while ((short) (block + Util.getShort(arena, block)) != end) {
+                block += Util.getShort(arena, block);
             }
+
+            short size = Util.getShort(arena, block);
+            short destination = (short) (block + freeBytes);
+            short slot = findSlot(block);
+            boolean transaction = JCSystem.getTransactionDepth() == 0;
+
+            if (transaction) {
+                JCSystem.beginTransaction();
+            }
+
+            Util.arrayCopy(arena, block, arena, destination, size);
+            setSlot(slot, destination);
+
+            Util.setShort(arena, block, (short) (freeBytes | FREE_BLOCK));
+            Util.setShort(arena, (short) (block + BLOCK_HEADER), (short) -1);
+            freeList = block;
+
+            if (transaction) {
+                JCSystem.commitTransaction();
+            }
+
+            end = block;
         }
+    }
+
+    /**
+     * Grows the block into the free block behind it, which is the only free block left by {@code compactArenaBehind}.
+     * The rest of the free block stays free.
+     * @param block offset of the block.
+     * @param size new size of the block.
+     */
+    private void growBlock(short block, short size) {
+        short rest = (short) (Util.getShort(arena, block) + freeBytes - size);
+
+        if (rest >= MIN_BLOCK) {
+            Util.setShort(arena, (short) (block + size), (short) (rest | FREE_BLOCK));
+            Util.setShort(arena, (short) (block + size + BLOCK_HEADER), (short) -1);
+            freeList = (short) (block + size);
+        } else {
+            size += rest;
+            rest = 0;
+            freeList = -1;
+        }
+
+        Util.setShort(arena, block, size);
+        freeBytes = rest;
+    }
 
-        // Creating new array with filtered rows
-        short index = 0;
-        Data[] filteredData = new Data[countFilteredData];
+    private short findSlot(short block) {
         for (short i = 0; i < dataCursor; i++) {
-            if (buffer[i] != null) {
-                filteredData[index] = buffer[i];
-                index++;
+            if (getSlot(i) == block) {
+                return i;
             }
         }
 
-        return filteredData;
+        return -1;
+    }
+
+    /**
+     * Moves the row block to the lower offset. The space between the moved block and the end of its old
+     * place gets the free header, which is not linked into the free list, so the arena stays walkable.
+     * @param slot row index of the block.
+     * @param destination new offset of the block.
+     * @param size size of the block.
+     * @param block old offset of the block.
+     */
+    private void moveBlock(short slot, short destination, short size, short block) {
+        boolean transaction = JCSystem.getTransactionDepth() == 0;
+
+        if (transaction) {
+            JCSystem.beginTransaction();
+        }
+
+        Util.arrayCopy(arena, block, arena, destination, size);
+        setSlot(slot, destination);
+
+        // The skipped blocks have at least MIN_BLOCK bytes, so the header fits into the space
+        short rest = (short) (destination + size);
+        Util.setShort(arena, rest, (short) ((short) (block - destination) | FREE_BLOCK));
+        Util.setShort(arena, (short) (rest + BLOCK_HEADER), (short) -1);
+
+        if (transaction) {
+            JCSystem.commitTransaction();
+        }
+    }
+
+    /**
+     * Gets the array with the row.
+     * @param rowIndex table row index.
+     * @return the arena of the table, or the {@code Data} array of the row.
+     */
+    public byte[] getRowData(short rowIndex) {
+
+        if (!isRow(rowIndex)) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+        }
+
+        return arena != null ? arena : getRow(rowIndex).getData();
+    }
+
+    /**
+     * Gets the offset of the row in the array returned by {@code getRowData}.
+     * @param rowIndex table row index.
+     * @return offset of the row.
+     */
+    public short getRowOffset(short rowIndex) {
+        return arena != null ? (short) (getSlot(rowIndex) + BLOCK_HEADER) : 0;
+    }
+
+    /**
+     * Allocates the segment of the row, if the row is the first row of the segment, which was not used yet.
+     * The segments stay allocated, when the rows are deleted, and they are reused by the next rows.
+     * @param rowIndex table row index.
+     */
+    private void addSegment(short rowIndex) {
+        short segment = (short) (rowIndex >> SEGMENT_SHIFT);
+
+        if (segments[segment] != null) {
+            return;
+        }
+
+        if (arena != null) {
+            segments[segment] = new short[SEGMENT_SIZE];
+        } else {
+            segments[segment] = new Data[SEGMENT_SIZE];
+        }
+    }
+
+    private Data getRow(short rowIndex) {
+        return ((Data[]) segments[(short) (rowIndex >> SEGMENT_SHIFT)])[(short) (rowIndex & SEGMENT_MASK)];
+    }
+
+    private void setRow(short rowIndex, Data row) {
+        ((Data[]) segments[(short) (rowIndex >> SEGMENT_SHIFT)])[(short) (rowIndex & SEGMENT_MASK)] = row;
+    }
+
+    private short getSlot(short rowIndex) {
+        return ((short[]) segments[(short) (rowIndex >> SEGMENT_SHIFT)])[(short) (rowIndex & SEGMENT_MASK)];
+    }
+
+    private void setSlot(short rowIndex, short block) {
+        ((short[]) segments[(short) (rowIndex >> SEGMENT_SHIFT)])[(short) (rowIndex & SEGMENT_MASK)] = block;
     }
 
     /**
@@ -150,6 +1302,28 @@ public class Table implements Performable {
         return tableName;
     }
 
+    /**
+     * Table is the base object for itself.
+     * @return this table.
+     */
+    @Override
+    public Table getTable() {
+        return this;
+    }
+
+    /**
+     * Gets the index of the column.
+     * @param columnIndex index of the column.
+     * @return index of the column. Null - if the column is not indexed.
+     */
+    public Index getIndex(short columnIndex) {
+        return indexes != null ? indexes[columnIndex] : null;
+    }
+
+    public Index getPrimaryKey() {
+        return primaryKey;
+    }
+
     /**
      * Gets amount of columns in the table.
      * @return number of columns.
@@ -164,58 +1338,205 @@ public class Table implements Performable {
      */
     @Override
     public void drop() {
-        for (short i = 0; i < dataCursor; i++) {
-            rows[i] = null;
+        for (short i = 0; i < (short) segments.length; i++) {
+            segments[i] = null;
         }
+
+        dataCursor = 0;
+        rowsCount = 0;
+        arena = null;
+        indexes = null;
+        primaryKey = null;
     }
 
     /**
      * Adds a new {@code Data} row into the table array.
+     * The primary key of the row should be checked by {@code checkPrimaryKey} before the row is allocated.
      * @param data new row to add.
      */
-    public void addData(Data data) {
+    private void addData(Data data) {
 
         if (data == null) {
             ISOException.throwIt(SCQL_ISO7816.SW_DATA_INVALID);
         }
 
-        if (dataCursor > SCQL_ISO7816.MAX_ROWS) {
+        if (dataCursor >= capacity.getMaxRows()) {
             ISOException.throwIt(SCQL_ISO7816.SW_END_OF_TABLE);
         }
 
-        this.rows[dataCursor] = data;
-        this.rows[dataCursor].setIndex(dataCursor);
+        setRow(dataCursor, data);
+        data.setIndex(dataCursor);
         dataCursor++;
+        rowsCount++;
+
+        addToIndexes((short) (dataCursor - 1));
+    }
+
+    /**
+     * Adds the new row into the indexes of the table.
+     * @param rowIndex table row index.
+     */
+    private void addToIndexes(short rowIndex) {
+        if (indexes != null) {
+            for (short i = 0; i < columnsN; i++) {
+                if (indexes[i] != null) {
+                    indexes[i].add(rowIndex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the sorted index on the table column and adds all existing rows into it.
+     * @param columnIndex index of the column.
+     */
+    public void createIndex(short columnIndex) {
+
+        if (indexes == null) {
+            indexes = new Index[columnsN];
+        }
+
+        if (indexes[columnIndex] != null) {
+            ISOException.throwIt(SCQL_ISO7816.SW_OBJECT_EXIST);
+        }
+
+        Index index = new Index(this, columnIndex);
+
+        for (short i = 0; i < dataCursor; i++) {
+            if (isRow(i)) {
+                index.add(i);
+            }
+        }
+
+        indexes[columnIndex] = index;
+    }
+
+    /**
+     * Drops the index on the table column.
+     * @param columnIndex index of the column.
+     */
+    public void dropIndex(short columnIndex) {
+
+        if (indexes == null || indexes[columnIndex] == null) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+        }
+
+        // The primary key index can't be dropped
+        if (indexes[columnIndex] == primaryKey) {
+            ISOException.throwIt(SCQL_ISO7816.SW_COMMAND_NOT_ALLOWED);
+        }
+
+        indexes[columnIndex].drop();
+        indexes[columnIndex] = null;
+    }
+
+    /**
+     * Declares the primary key column of the table. The rows are kept ordered by the key
+     * in the primary key index, and the key values should be unique.
+     * @param columnIndex index of the key column.
+     */
+    public void setPrimaryKey(short columnIndex) {
+
+        if (primaryKey != null) {
+            ISOException.throwIt(SCQL_ISO7816.SW_OBJECT_EXIST);
+        }
+
+        createIndex(columnIndex);
+        primaryKey = indexes[columnIndex];
+    }
+
+    /**
+     * Checks, that the key of the new row doesn't exist in the table yet.
+     * @param row array with the Lp blocks of the row columns.
+     * @param offset offset of the row in the array.
+     */
+    public void checkPrimaryKey(byte[] row, short offset) {
+
+        if (primaryKey == null) {
+            return;
+        }
+
+        short keyOffset = DatabaseUtil.getOffset(row, offset, primaryKey.getColumnIndex());
+
+        if (primaryKey.contains(row, (short) (keyOffset + 1), row[keyOffset])) {
+            ISOException.throwIt(SCQL_ISO7816.SW_OBJECT_EXIST);
+        }
+    }
+
+    /**
+     * Checks if the operand can be answered by the range of the sorted index.
+     * @param operand filter operand.
+     * @return true - for =, <, >, <=, >= operands. false - otherwise.
+     */
+    public static boolean isRangeOperand(byte operand) {
+        return operand == 0x3d || operand == 0x3c || operand == 0x3e || operand == 0x4c || operand == 0x47;
+    }
+
+    /**
+     * Gets amount of rows, which can be added to the table.
+     * @return number of free rows.
+     */
+    public short getFreeRows() {
+        return (short) (capacity.getMaxRows() - rowsCount);
+    }
+
+    public CapacityProfile getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the version of the row IDs, which is changed by the compaction of the rows.
+     * The positions of the index scans are checked by the versions of the indexes.
+     * @return table version.
+     */
+    public short getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the type of the column.
+     * @param columnIndex index of the column.
+     * @return column type. {@code TYPE_BYTES} - if the table columns are not typed.
+     */
+    public byte getColumnType(short columnIndex) {
+        return columnTypes != null ? columnTypes[columnIndex] : SCQL_ISO7816.TYPE_BYTES;
     }
 
     /**
      * Gets array column index in the table, by the given name.
-     * @param columnName column name.
+     * @param src source array with the column name.
+     * @param offset offset of the column name in the source array.
+     * @param length length of the column name.
      * @return index of the array column, if the column name exists in the table.
      * -1 - otherwise.
      */
     @Override
-    public short getColumnIndexByName(byte[] columnName) {
+    public short getColumnIndexByName(byte[] src, short offset, short length) {
 
-        if (columnName == null || columns.length == 0) {
+        if (src == null || columns.length == 0) {
             ISOException.throwIt(SCQL_ISO7816.SW_WRONG_DATA);
         }
 
-        short index = 0;
-        for (short i = 0; i < columnsN; i++) {
-            short length = columns[index];
-            index++;
-
-            if (length == columnName.length) {
-                if (Util.arrayCompare(columns, index, columnName, (short) 0, length) == 0) {
-                    return i;
-                }
-            }
+        return DatabaseUtil.getColumnIndexByName(columns, (short) 0, columnsN, src, offset, length);
+    }
 
-            index += length;
-        }
+    /**
+     * Table columns are the columns of the table.
+     * @param columnIndex index of the column.
+     * @return the same index.
+     */
+    @Override
+    public short getTableColumnIndex(short columnIndex) {
+        return columnIndex;
+    }
 
-        return -1;
+    /**
+     * Table has no own filters, all its rows are selected.
+     * @return null.
+     */
+    @Override
+    public Filter[] getFilters() {
+        return null;
     }
 
     public byte[] getColumns() {
@@ -54,106 +54,127 @@ public class View implements Performable {
     }
 
     /**
-     * Updates a column in the view's referred table.
-     * @param data new column data.
-     * @param columnIndex index of the column to update.
+     * Checks, that the view column of the referred table row can be updated by the value.
+     * @param rowIndex table row index.
+     * @param columnIndex index of the column in the view.
+     * @param value array with the new value.
+     * @param offset offset of the value.
+     * @param length length of the value.
      */
     @Override
-    public void update(byte[] data, short columnIndex) {
+    public void checkUpdate(short rowIndex, short columnIndex, byte[] value, short offset, short length) {
+
+        if (table == null) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
+        }
 
+        table.checkUpdate(rowIndex, columnIndexes[columnIndex], value, offset, length);
     }
 
     /**
-     * Filters columns and rows by the specified {@code Filter} conditions inside view and additional of outside.
-     * Returns new instances of {@code Data} from the referred table.
-     * @param externalFilters additional filters to apply.
-     * @return filtered {@code Data} objects
+     * Updates a column in the view's referred table.
+     * @param rowIndex table row index.
+     * @param columnIndex index of the column in the view.
+     * @param value array with the new value.
+     * @param offset offset of the value.
+     * @param length length of the value.
      */
     @Override
-    public Data[] filter(Filter[] externalFilters) {
+    public void update(short rowIndex, short columnIndex, byte[] value, short offset, short length) {
 
         if (table == null) {
             ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
         }
 
-        Data[] result;
-
-        if (this.filters == null && externalFilters == null) { // If no filter available
-            result = table.filter(null);
-        } else if (externalFilters == null) { // Only applying view filters
-            result = table.filter(this.filters);
-        } else if (this.filters == null) { // If view has no filters, applying external one
-            result = table.filter(externalFilters);
-        } else {
-            // If the view and external filters are available, merge them
-            Filter[] allFilters = new Filter[(short)(externalFilters.length + this.filters.length)];
-
-            for (short i = 0; i < this.filters.length; i++) {
-                allFilters[i] = this.filters[i];
-            }
-
-            short index = (short) this.filters.length;
+        table.update(rowIndex, columnIndexes[columnIndex], value, offset, length);
+    }
 
-            for (short i = 0; i < externalFilters.length; i++) {
-                allFilters[(short)(index + i)] = externalFilters[i];
-            }
+    /**
+     * Filters the rows of the referred table by the view filters and the additional filters from outside.
+     * The view columns are selected from the filtered rows by {@code select}.
+     * @param externalFilters additional filters to apply.
+     * @param rowIndexes array for the table indexes of the filtered rows.
+     * @param offset offset of the filtered rows in the array.
+     * @return number of the filtered rows.
+     */
+    @Override
+    public short filter(Filter[] externalFilters, short[] rowIndexes, short offset) {
 
-            // Filter all data by view filters and external one
-            result = table.filter(allFilters);
+        if (table == null) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
         }
 
-        return filterByColumnIndex(result);
+        return table.filter(this.filters, externalFilters, rowIndexes, offset);
     }
 
     /**
-     * Method filters the given rows to the specified amount of column names (indexes) in the view.
-     * @param src rows to be filtered.
-     * @return new filtered rows with restricted columns within the view.
+     * Initializes the scan of the referred table for the view filters and the additional filters
+     * from outside. Any of them can restrict the scan to an index range.
+     * @param scan scan to initialize.
+     * @param externalFilters additional filters to apply, can be null.
      */
-    private Data[] filterByColumnIndex(Data[] src) {
+    @Override
+    public void initScan(Scan scan, Filter[] externalFilters) {
 
         if (table == null) {
             ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
         }
 
-        if (src == null) {
-            return new Data[0];
-        }
+        table.initScan(scan, this.filters, externalFilters);
+    }
 
-        if (src.length == 0) {
-            return src;
-        }
+    /**
+     * Finds the first row of the referred table from the current scan position, which applies
+     * the view filters and the additional filters from outside.
+     * @param scan scan positioned on the row to start from.
+     * @param externalFilters additional filters to apply, can be null.
+     * @return index of the found table row. -1 - if there is no such row.
+     */
+    @Override
+    public short seek(Scan scan, Filter[] externalFilters) {
 
-        // If selecting all columns, simply returning same data
-        if (table.getColumnsN() == columnIndexes.length) {
-            return src;
+        if (table == null) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
         }
 
-        // Creating new data structure with new column sizes
-        Data[] filteredData = new Data[src.length];
-        for (short i = 0; i < src.length; i++) {
-            Data data = src[i];
+        return table.seek(scan, this.filters, externalFilters);
+    }
 
-            byte[] filteredColumns = DatabaseUtil.selectColumnsByIndexes(data.getData(), this.columnIndexes);
-            filteredData[i] = new Data(filteredColumns);
+    /**
+     * Selects the view columns of the referred table row into the destination array.
+     * @param rowIndex table row index.
+     * @param columnIndexes indexes of the columns in the view to select.
+     * @param dest destination array.
+     * @param offset offset in the destination array.
+     * @param limit end of the space in the destination array.
+     * @return offset behind the selected Lp blocks. -1 - if the columns don't fit into the space.
+     */
+    @Override
+    public short select(short rowIndex, byte[] columnIndexes, byte[] dest, short offset, short limit) {
+
+        if (table == null) {
+            ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
         }
 
-        return filteredData;
+        return table.project(table.getRowData(rowIndex), table.getRowOffset(rowIndex), columnIndexes, this.columnIndexes,
+                dest, offset, limit);
     }
 
     /**
      * Method is searching the index of the array inside the referred view table.
-     * @param columnName name of desired column.
+     * @param src source array with the name of desired column.
+     * @param offset offset of the column name in the source array.
+     * @param length length of the column name.
      * @return array index if column name exists. -1 - otherwise.
      */
     @Override
-    public short getColumnIndexByName(byte[] columnName) {
+    public short getColumnIndexByName(byte[] src, short offset, short length) {
 
         if (table == null) {
             ISOException.throwIt(SCQL_ISO7816.SW_REFERENCED_OBJ_NOT_FOUND);
         }
 
-        short index = table.getColumnIndexByName(columnName);
+        short index = table.getColumnIndexByName(src, offset, length);
 
         if (index != -1) {
             for (short i = 0; i < columnIndexes.length; i++) {
@@ -166,6 +187,16 @@ public class View implements Performable {
         return -1;
     }
 
+    /**
+     * Maps the view column to the column of the referred table.
+     * @param columnIndex index of the column in the view.
+     * @return index of the column in the table.
+     */
+    @Override
+    public short getTableColumnIndex(short columnIndex) {
+        return columnIndexes[columnIndex];
+    }
+
     /**
      * Gets the view name.
      * @return view name.
@@ -200,10 +231,12 @@ public class View implements Performable {
         this.columnIndexes = columnIndexes;
     }
 
+    @Override
     public Filter[] getFilters() {
         return filters;
     }
 
+    @Override
     public Table getTable() {
         return table;
     }